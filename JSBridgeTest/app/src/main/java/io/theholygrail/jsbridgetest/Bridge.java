@@ -34,7 +34,7 @@ public class Bridge {
 
             //Log.d("javascriptparamsource", valueParam.functionSourceValue());
 
-            valueParam.callFunction(mWebView, args, new ValueCallback<JSValue>() {
+            mWebView.callFunction(valueParam, args, new ValueCallback<JSValue>() {
                 @Override
                 public void onReceiveValue(final JSValue value) {
                     if (value.isValid()) {
@@ -0,0 +1,391 @@
+package io.theholygrail.jsbridge.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a JSBinding for every class with @JavascriptInterface methods.
+ *
+ * The binding holds the javascript stubs for the class as a constant, worked out at build time,
+ * so exporting an object to a JSWebView doesn't need to reflect over it.  The stubs match what
+ * JSWebView builds at runtime for classes without a binding.  It also lists each exported method
+ * for BridgeDispatcher, with its parameter types and @DispatchOn, and calls it directly rather
+ * than through Method.invoke().
+ *
+ * Exported methods can take String, int, long, double and boolean parameters.  Strings go across
+ * as bridge strings, the rest are passed as they are.  Methods marked with @PackedArguments take
+ * a single String holding all of their arguments.
+ */
+@SupportedAnnotationTypes(JSBindingProcessor.JAVASCRIPT_INTERFACE)
+public final class JSBindingProcessor extends AbstractProcessor {
+    static final String JAVASCRIPT_INTERFACE = "android.webkit.JavascriptInterface";
+    static final String PACKED_ARGUMENTS = "io.theholygrail.jsbridge.PackedArguments";
+    static final String DISPATCH_ON = "io.theholygrail.jsbridge.DispatchOn";
+    static final String BINDING_INTERFACE = "io.theholygrail.jsbridge.JSBinding";
+    static final String EXPORTED_METHOD = "io.theholygrail.jsbridge.ExportedMethod";
+    static final String BINDING_SUFFIX = "$$JSBinding";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<ExecutableElement>> classes = new LinkedHashMap<>();
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    TypeElement cls = (TypeElement)element.getEnclosingElement();
+                    if (!classes.containsKey(cls)) {
+                        classes.put(cls, exportedMethods(cls));
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : classes.entrySet()) {
+            try {
+                writeBinding(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to write JSBinding: " + e.getMessage(), entry.getKey());
+            }
+        }
+
+        // let anyone else interested in @JavascriptInterface have a look too.
+        return false;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private List<ExecutableElement> exportedMethods(TypeElement cls) {
+        List<ExecutableElement> result = new ArrayList<>();
+
+        // getAllMembers() covers inherited methods, same as Class.getMethods() does at runtime.
+        List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(cls));
+        for (ExecutableElement method : methods) {
+            if (!isAnnotatedWith(method, JAVASCRIPT_INTERFACE)) {
+                continue;
+            }
+
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Only public instance methods can be called from javascript, this one won't be exported.", method);
+            } else if (isAnnotatedWith(method, PACKED_ARGUMENTS)) {
+                if (isPackedSignature(method)) {
+                    result.add(method);
+                } else {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "@PackedArguments methods must take a single String, this one won't be exported.", method);
+                }
+            } else if (hasObjectParameters(method)) {
+                // these are passed through __bridgeDispatch at runtime, they're listed but get no stub.
+                if (method.getReturnType().getKind() != TypeKind.VOID) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "Exported methods taking objects must return void, this one won't be exported.", method);
+                } else {
+                    result.add(method);
+                }
+            } else if (!hasExportableParameters(method)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Exported methods can only take String, int, long, double, boolean or object parameters, this one won't be exported.", method);
+            } else {
+                result.add(method);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isAnnotatedWith(ExecutableElement method, String annotation) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().toString().equals(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPackedSignature(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        return parameters.size() == 1 && parameters.get(0).asType().toString().equals("java.lang.String");
+    }
+
+    private static boolean hasExportableParameters(ExecutableElement method) {
+        for (VariableElement parameter : method.getParameters()) {
+            if (!isExportableType(parameter.asType().toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same as JSBindings.hasObjectParameters(), objects alongside anything a normal stub can pass.
+    private static boolean hasObjectParameters(ExecutableElement method) {
+        boolean result = false;
+
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror type = parameter.asType();
+            if (type.getKind().isPrimitive()) {
+                if (!isExportableType(type.toString())) {
+                    return false;
+                }
+            } else if (type.getKind() == TypeKind.DECLARED || type.getKind() == TypeKind.ARRAY) {
+                result |= !type.toString().equals("java.lang.String");
+            } else {
+                return false;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isExportableType(String type) {
+        return type.equals("java.lang.String") || type.equals("int") || type.equals("long") ||
+                type.equals("double") || type.equals("boolean");
+    }
+
+    private void writeBinding(TypeElement cls, List<ExecutableElement> methods) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(cls).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(cls).toString();
+        String className = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + BINDING_SUFFIX;
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by jsbridge-compiler.  Do not modify!\n");
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("public final class ").append(className).append(" implements ").append(BINDING_INTERFACE).append(" {\n");
+        source.append("    private static final String STUBS = ").append(stubsLiteral(methods)).append(";\n");
+
+        // a class we can't name from here, ie: a private or anonymous one, is left to reflection.
+        boolean callable = isCallable(cls);
+        if (callable) {
+            String dispatch = dispatchOf(cls);
+            source.append("    private static final String DISPATCH = ")
+                    .append(dispatch != null ? '"' + dispatch + '"' : "null").append(";\n");
+            source.append("    private static final java.util.List<").append(EXPORTED_METHOD)
+                    .append("> METHODS = java.util.Collections.unmodifiableList(java.util.Arrays.<")
+                    .append(EXPORTED_METHOD).append(">asList(");
+            for (int i = 0; i < methods.size(); i++) {
+                source.append(i == 0 ? "\n" : ",\n");
+                appendExportedMethod(source, cls, methods.get(i));
+            }
+            source.append("));\n");
+        }
+
+        source.append("\n");
+        source.append("    @Override\n");
+        source.append("    public String javascriptStubs(String interfaceName) {\n");
+        source.append("        return interfaceName + \" = { };\\n\" + STUBS + \"(\" + interfaceName")
+                .append(" + \", function() { return __\" + interfaceName + \"; }, '\" + interfaceName + \"');\\n\";\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public java.util.List<").append(EXPORTED_METHOD).append("> exportedMethods() {\n");
+        source.append("        return ").append(callable ? "METHODS" : "null").append(";\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public String dispatch() {\n");
+        source.append("        return ").append(callable ? "DISPATCH" : "null").append(";\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? className : packageName + "." + className, cls);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+    The stubs as a function taking the proxy object, a way to get at the Java one, which is only
+    there in pages loaded after it was added, so it's looked up on each call, and the interface
+    name.  Each call goes through __bridgeTimed(), so it can be measured without changing how
+    it's made.  Methods taking objects have no stub, BridgeDispatcher writes theirs.
+     */
+    private String stubsLiteral(List<ExecutableElement> methods) {
+        StringBuilder literal = new StringBuilder("\"(function(object, bridge, name) {\\n\"");
+
+        for (ExecutableElement method : methods) {
+            boolean packed = isAnnotatedWith(method, PACKED_ARGUMENTS);
+            if (!packed && hasObjectParameters(method)) {
+                continue;
+            }
+
+            String methodName = method.getSimpleName().toString();
+            literal.append("\n            + \"object.").append(methodName);
+            if (packed) {
+                literal.append(" = function() { var args = arguments; ").append(timedString(methodName))
+                        .append("argumentsToBridgeString(args)); }); };\\n\"");
+            } else {
+                List<? extends VariableElement> parameters = method.getParameters();
+                literal.append(" = function(").append(parameterString(parameters.size())).append(") { ")
+                        .append(timedString(methodName)).append(callString(parameters)).append("); }); };\\n\"");
+            }
+        }
+
+        return literal.append("\n            + \"})\"").toString();
+    }
+
+    /*
+    ie:
+    new ExportedMethod("scrolled", new Type[] { int.class, String.class }, false, false, "MAIN") {
+        public void invoke(Object target, Object[] arguments) {
+            ((Page)target).scrolled((Integer)arguments[0], (String)arguments[1]);
+        }
+    }
+     */
+    private void appendExportedMethod(StringBuilder source, TypeElement cls, ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        String methodName = method.getSimpleName().toString();
+        List<? extends VariableElement> parameters = method.getParameters();
+        String dispatch = dispatchOf(method);
+
+        source.append("            new ").append(EXPORTED_METHOD).append("(\"").append(methodName)
+                .append("\", new java.lang.reflect.Type[] {");
+        for (int i = 0; i < parameters.size(); i++) {
+            source.append(i == 0 ? " " : ", ").append(typeExpression(parameters.get(i).asType()));
+        }
+        source.append(parameters.isEmpty() ? "}, " : " }, ")
+                .append(method.getReturnType().getKind() != TypeKind.VOID).append(", ")
+                .append(isAnnotatedWith(method, PACKED_ARGUMENTS)).append(", ")
+                .append(dispatch != null ? '"' + dispatch + '"' : "null").append(") {\n");
+        source.append("                @Override\n");
+        source.append("                @SuppressWarnings(\"unchecked\")\n");
+        source.append("                public void invoke(Object target, Object[] arguments) throws Exception {\n");
+        source.append("                    ((").append(types.erasure(cls.asType())).append(")target).")
+                .append(methodName).append('(');
+        for (int i = 0; i < parameters.size(); i++) {
+            TypeMirror type = parameters.get(i).asType();
+            String cast = type.getKind().isPrimitive() ?
+                    types.boxedClass((PrimitiveType)type).getQualifiedName().toString() : types.erasure(type).toString();
+            source.append(i == 0 ? "(" : ", (").append(cast).append(")arguments[").append(i).append(']');
+        }
+        source.append(");\n");
+        source.append("                }\n");
+        source.append("            }");
+    }
+
+    /*
+    A Type for the parameter that matches what reflection would give, or null if there isn't a
+    way to write one, ie: for wildcards and type variables, which can't be decoded into anyway.
+     */
+    private String typeExpression(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+
+        switch (type.getKind()) {
+            case DECLARED:
+                List<? extends TypeMirror> arguments = ((DeclaredType)type).getTypeArguments();
+                if (arguments.isEmpty()) {
+                    return types.erasure(type) + ".class";
+                }
+
+                StringBuilder builder = new StringBuilder(EXPORTED_METHOD).append(".parameterized(")
+                        .append(types.erasure(type)).append(".class");
+                for (TypeMirror argument : arguments) {
+                    String argumentExpression = typeExpression(argument);
+                    if (argumentExpression.equals("null")) {
+                        return "null";
+                    }
+                    builder.append(", ").append(argumentExpression);
+                }
+                return builder.append(')').toString();
+            case ARRAY:
+                // arrays of parameterized types have no class of their own.
+                TypeMirror component = ((ArrayType)type).getComponentType();
+                return component.getKind() == TypeKind.DECLARED && !((DeclaredType)component).getTypeArguments().isEmpty() ?
+                        "null" : types.erasure(type) + ".class";
+            default:
+                return type.getKind().isPrimitive() ? type + ".class" : "null";
+        }
+    }
+
+    // whether generated code in the same package can name the class.
+    private static boolean isCallable(TypeElement cls) {
+        for (Element element = cls; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            TypeElement type = (TypeElement)element;
+            if (type.getModifiers().contains(Modifier.PRIVATE) || type.getNestingKind() == NestingKind.ANONYMOUS ||
+                    type.getNestingKind() == NestingKind.LOCAL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the name of the Dispatch constant in an element's own @DispatchOn, if it has one.
+    private static String dispatchOf(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().toString().equals(DISPATCH_ON)) {
+                for (AnnotationValue value : mirror.getElementValues().values()) {
+                    return ((VariableElement)value.getValue()).getSimpleName().toString();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String parameterString(int parameterCount) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parameterCount; i++) {
+            builder.append(i == 0 ? "arg" : ", arg").append(i);
+        }
+        return builder.toString();
+    }
+
+    // ie: return __bridgeTimed(name, 'tapped', function() { return bridge().tapped(
+    private static String timedString(String methodName) {
+        return "return __bridgeTimed(name, '" + methodName + "', function() { return bridge()." + methodName + "(";
+    }
+
+    private static String callString(List<? extends VariableElement> parameters) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+
+            // strings get a bridge string, primitives are converted by the WebView itself.
+            String type = parameters.get(i).asType().toString();
+            if (type.equals("java.lang.String")) {
+                builder.append("valueToBridgeString(arg").append(i).append(')');
+            } else if (type.equals("boolean")) {
+                builder.append("Boolean(arg").append(i).append(')');
+            } else {
+                builder.append("Number(arg").append(i).append(')');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package io.theholygrail.jsbridge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load tests the whole protocol against the runtime in a RhinoPage, no device needed.
+ *
+ * Java to javascript: callers threads call a page function through callFunctionAsync() as fast
+ * as they can, each result decoded and checked.  Javascript to java: the page calls an exported
+ * method with a request and a callback, a pool replies to each by calling the callback, and the
+ * callback tells Java it got there.  Calls/sec covers the whole run, latency each call's round
+ * trip.  Afterwards the page and the FunctionTable should both be holding nothing.
+ *
+ *     ./gradlew :jsbridge-core:bridgeHarness -PharnessArgs='20000 16'
+ *
+ * Takes the number of calls and callers, 10000 and 8 by default.  Exits with 1 if any call went
+ * missing or failed, so it can run on CI.
+ */
+public class BridgeHarness {
+    private static final String RUNTIME_PROPERTY = "jsbridge.runtime";
+    // requests the page sends per script, so replies get a look in between.
+    private static final int REQUEST_BATCH = 100;
+    private static final long WAIT_MINUTES = 5;
+
+    /**
+     * Exported to the page as "service".
+     */
+    public static class Service {
+        private final RhinoPage mPage;
+        private final ExecutorService mWorkers;
+        private final long[] mStartNanos;
+        private final Latencies mLatencies;
+
+        Service(RhinoPage page, ExecutorService workers, Latencies latencies) {
+            mPage = page;
+            mWorkers = workers;
+            mStartNanos = new long[latencies.capacity()];
+            mLatencies = latencies;
+        }
+
+        public void request(String request, String callback) {
+            final JSValue value = new JSValue(request);
+            final JSValue function = new JSValue(callback);
+            final int id = value.get("id").integerValue();
+            mStartNanos[id] = System.nanoTime();
+
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, Object> reply = new HashMap<>();
+                    reply.put("id", id);
+                    reply.put("value", value.get("value").doubleValue() * 2);
+                    function.callFunction(mPage, new Object[] { reply });
+                    function.release();
+                }
+            });
+        }
+
+        public void replied(int id) {
+            mLatencies.record(System.nanoTime() - mStartNanos[id]);
+        }
+    }
+
+    /*
+    Every round trip, sorted at the end for exact percentiles.
+     */
+    private static final class Latencies {
+        private final long[] mNanos;
+        private final AtomicInteger mCount = new AtomicInteger();
+        private final CountDownLatch mDone;
+
+        Latencies(int capacity) {
+            mNanos = new long[capacity];
+            mDone = new CountDownLatch(capacity);
+        }
+
+        int capacity() {
+            return mNanos.length;
+        }
+
+        void record(long nanos) {
+            mNanos[mCount.getAndIncrement()] = nanos;
+            mDone.countDown();
+        }
+
+        // counted as missing.
+        void fail() {
+            mDone.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mDone.await(WAIT_MINUTES, TimeUnit.MINUTES);
+        }
+
+        String report(String name, int callers, long elapsedNanos) {
+            int count = mCount.get();
+            long[] sorted = Arrays.copyOf(mNanos, count);
+            Arrays.sort(sorted);
+
+            return String.format("%s: %d calls from %d callers, %.0f calls/sec, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d failed",
+                    name, count, callers, count / (elapsedNanos / 1e9), millis(sorted, 0.5), millis(sorted, 0.99),
+                    millis(sorted, 1.0), capacity() - count);
+        }
+
+        boolean succeeded() {
+            return mCount.get() == capacity();
+        }
+
+        private static double millis(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = Math.min(sorted.length - 1, (int)Math.ceil(sorted.length * fraction) - 1);
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int callers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        String runtime = readRuntime();
+        // every request's callback is held until it's replied to.
+        RhinoPage page = new RhinoPage(runtime, Math.max(1000, calls));
+        boolean succeeded;
+
+        try {
+            long heapBefore = usedHeap();
+
+            succeeded = javaToJavascript(page, calls, callers);
+            succeeded &= javascriptToJava(page, calls, callers);
+
+            long heapAfter = usedHeap();
+            String cached = page.evaluate("__functionCacheSize");
+            System.out.println(String.format("memory: heap %.1f MB before, %.1f MB after, page holding %s functions, %d live handles, %d script errors",
+                    heapBefore / 1048576.0, heapAfter / 1048576.0, cached, page.liveFunctionCount(), page.errorCount()));
+            succeeded &= page.errorCount() == 0;
+        } finally {
+            page.close();
+        }
+
+        System.exit(succeeded ? 0 : 1);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static boolean javaToJavascript(final RhinoPage page, int calls, int callers) throws Exception {
+        page.evaluate("square = function(request) { return { id: request.id, value: request.value * request.value, tags: request.tags }; }");
+        final JSValue square = page.evaluateJavascriptAsync("square").get();
+        final Latencies latencies = new Latencies(calls);
+
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        long start = System.nanoTime();
+        for (int caller = 0; caller < callers; caller++) {
+            final int first = calls * caller / callers;
+            final int last = calls * (caller + 1) / callers;
+
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < last; i++) {
+                        final int id = i;
+                        final long callStart = System.nanoTime();
+                        Map<String, Object> request = new HashMap<>();
+                        request.put("id", id);
+                        request.put("value", id % 1000);
+                        request.put("tags", new String[] { "a", "b" });
+
+                        square.callFunctionAsync(page, new Object[] { request }).addCallback(new JSCall.Callback() {
+                            @Override
+                            public void onResult(JSValue value) {
+                                long nanos = System.nanoTime() - callStart;
+                                Integer result = value.get("value").integerValue();
+                                if (result != null && result == (id % 1000) * (id % 1000)) {
+                                    latencies.record(nanos);
+                                } else {
+                                    latencies.fail();
+                                }
+                            }
+
+                            @Override
+                            public void onError(Exception error) {
+                                latencies.fail();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        boolean finished = latencies.await();
+        long elapsed = System.nanoTime() - start;
+        threads.shutdown();
+        square.release();
+
+        System.out.println(latencies.report("java to javascript", callers, elapsed));
+        return finished && latencies.succeeded();
+    }
+
+    private static boolean javascriptToJava(RhinoPage page, int calls, int callers) throws Exception {
+        Latencies latencies = new Latencies(calls);
+        ExecutorService workers = Executors.newFixedThreadPool(callers);
+        page.addJavascriptInterface(new Service(page, workers, latencies), "service");
+
+        long start = System.nanoTime();
+        for (int first = 0; first < calls; first += REQUEST_BATCH) {
+            int last = Math.min(first + REQUEST_BATCH, calls);
+            page.executeJavascript("for (var i = " + first + "; i < " + last + "; i++) {"
+                    + " service.request({ id: i, value: i / 2 }, function(reply) { service.replied(reply.id); }); }");
+        }
+
+        boolean finished = latencies.await();
+        long elapsed = System.nanoTime() - start;
+        workers.shutdown();
+
+        System.out.println(latencies.report("javascript to java", callers, elapsed));
+        return finished && latencies.succeeded();
+    }
+
+    private static String readRuntime() throws IOException {
+        String path = System.getProperty(RUNTIME_PROPERTY);
+        if (path == null) {
+            throw new IllegalStateException("Set -D" + RUNTIME_PROPERTY + " to the bridge runtime, ie: jsbridge/src/main/js/runtime.js");
+        }
+
+        Reader reader = new InputStreamReader(new FileInputStream(new File(path)), "UTF-8");
+        try {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[4 * 1024];
+
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        // anything collected since has its function released, so the counts are up to date.
+        FunctionTable.drainCollected();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,220 @@
+package io.theholygrail.jsbridge;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for a JSWebView and its page: the bridge runtime running in Rhino, with everything
+ * the page sees going through the same scripts and bridge strings a web view would carry.
+ *
+ * The page has one thread, like a web view's main thread, and scripts run on it one at a time
+ * in the order they were sent.  Exported objects are called directly from that thread, the way
+ * WebView calls them on its JavaBridge thread while the page waits.  Results come back the way
+ * evaluateJavascript() hands them over, so there's no passResult() round trip.  Calls don't
+ * time out here, there's no main thread Handler for a watchdog.
+ */
+final class RhinoPage implements JSContext {
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final ExecutorService mThread;
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    // the page's side of the function cache, same as JSWebView's.
+    private final FunctionTable mFunctionTable;
+    private final FunctionTable.Owner mFunctionReleaser = new FunctionTable.Owner() {
+        @Override
+        public void releaseFunctions(String ids) {
+            executeJavascript("__bridgeReleaseFunctions([" + ids + "]);");
+        }
+    };
+    // page thread only.
+    private Scriptable mScope = null;
+
+    /**
+     * Sets up a page with the given runtime, ie: the contents of src/main/js/runtime.js.
+     */
+    RhinoPage(final String runtime, final int functionCacheLimit) throws Exception {
+        mThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a thread keeps the same Context the whole time.
+                        Context context = ContextFactory.getGlobal().enterContext();
+                        try {
+                            // lots of small scripts, compiling each one to a class isn't worth it.
+                            context.setOptimizationLevel(-1);
+                            runnable.run();
+                        } finally {
+                            Context.exit();
+                        }
+                    }
+                }, "RhinoPage");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mFunctionTable = FunctionTable.create(mFunctionReleaser);
+
+        call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Context context = Context.getCurrentContext();
+                mScope = context.initStandardObjects();
+                ScriptableObject.putProperty(mScope, "btoa", new Btoa());
+
+                // the same settings BridgeRuntime sends along with it.
+                context.evaluateString(mScope, "__bridgeID = " + mFunctionTable.bridgeID()
+                        + ", __functionIDBase = " + FunctionTable.functionIDBase(mFunctionTable.bridgeID())
+                        + ", __functionIDLimit = " + functionCacheLimit
+                        + ", __bridgeSendsFunctionSource = true;\n" + runtime, "runtime.js", 1, null);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Exports an object to the page with stubs from its JSBinding, same as
+     * JSWebView.addJavascriptInterface().
+     */
+    void addJavascriptInterface(final Object object, final String interfaceName) throws Exception {
+        call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ScriptableObject.putProperty(mScope, "__" + interfaceName, Context.javaToJS(object, mScope));
+                runScript(JSBindings.forClass(object.getClass()).javascriptStubs(interfaceName));
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void executeJavascript(final String javascript) {
+        mThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                runScript(javascript);
+            }
+        });
+    }
+
+    @Override
+    public JSCall evaluateJavascriptAsync(String expression) {
+        return evaluateJavascriptAsync(expression, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public JSCall evaluateJavascriptAsync(final String expression, long timeout, TimeUnit unit) {
+        final JSCall call = new JSCall(unit.toNanos(timeout));
+
+        mThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object result = Context.getCurrentContext().evaluateString(mScope,
+                            "__bridgeCall(function() { return (" + expression + "); })", "call", 1, null);
+                    call.complete(Context.toString(result));
+                } catch (RhinoException e) {
+                    // a syntax error, __bridgeCall() catches anything else.
+                    call.fail(new JSException(e.getMessage(), e.getScriptStackTrace()));
+                }
+            }
+        });
+
+        return call;
+    }
+
+    /**
+     * Evaluates a javascript expression on the page's thread and waits for its value as a
+     * String, ie: to set things up or look at the runtime's state.
+     */
+    String evaluate(final String expression) throws Exception {
+        return call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return Context.toString(Context.getCurrentContext().evaluateString(mScope, expression, "evaluate", 1, null));
+            }
+        });
+    }
+
+    /**
+     * The number of scripts sent with executeJavascript() that threw.
+     */
+    int errorCount() {
+        return mErrorCount.get();
+    }
+
+    /**
+     * The number of functions Java is still holding references to.
+     */
+    int liveFunctionCount() {
+        return mFunctionTable.liveCount();
+    }
+
+    void close() {
+        mFunctionTable.close();
+        mThread.shutdownNow();
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private <T> T call(Callable<T> callable) throws Exception {
+        return mThread.submit(callable).get();
+    }
+
+    /*
+    Each script on its own, so one that throws doesn't stop the ones after it, same as
+    JSWebView's batches.
+     */
+    private void runScript(String javascript) {
+        try {
+            Context.getCurrentContext().evaluateString(mScope, javascript, "script", 1, null);
+        } catch (RhinoException e) {
+            if (mErrorCount.incrementAndGet() <= 10) {
+                System.err.println("RhinoPage: " + e.getMessage());
+            }
+        }
+    }
+
+    // Rhino doesn't have one, the runtime uses it to send function source along.
+    private static final class Btoa extends BaseFunction {
+        @Override
+        public Object call(Context context, Scriptable scope, Scriptable thisObj, Object[] args) {
+            byte[] data;
+            try {
+                data = Context.toString(args.length > 0 ? args[0] : "").getBytes("ISO-8859-1");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+            for (int i = 0; i < data.length; i += 3) {
+                int bits = (data[i] & 0xff) << 16;
+                if (i + 1 < data.length) {
+                    bits |= (data[i + 1] & 0xff) << 8;
+                }
+                if (i + 2 < data.length) {
+                    bits |= data[i + 2] & 0xff;
+                }
+
+                builder.append(BASE64.charAt(bits >> 18 & 0x3f))
+                        .append(BASE64.charAt(bits >> 12 & 0x3f))
+                        .append(i + 1 < data.length ? BASE64.charAt(bits >> 6 & 0x3f) : '=')
+                        .append(i + 2 < data.length ? BASE64.charAt(bits & 0x3f) : '=');
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.theholygrail.jsbridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes and encodes each payload the way the bridge does with a page on the other end.
+ *
+ * decode is a bridge string from javascript into JSValues, decodeLazy the same left for later,
+ * and decodeOrgJson the same through JSValueCodecs.ORG_JSON to compare codecs.
+ * encode is those JSValues written back out as javascript, and callScript the whole script for
+ * calling a function with them as the argument.  Run with -prof gc for allocations.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class CodecBenchmark {
+    @Param({ Payloads.FLAT, Payloads.NESTED, Payloads.NUMBERS, Payloads.CALLBACKS })
+    public String payload;
+
+    private String mBridgeString;
+    private JSValue mValue;
+    private JSValue mFunction;
+    private FunctionTable mFunctionTable;
+    private String mScript;
+
+    // stands in for the page, nothing is released since nothing is really retained.
+    private final FunctionTable.Owner mOwner = new FunctionTable.Owner() {
+        @Override
+        public void releaseFunctions(String ids) {
+        }
+    };
+
+    // keeps the last script instead of running it.
+    private final JSContext mContext = new JSContext() {
+        @Override
+        public void executeJavascript(String javascript) {
+            mScript = javascript;
+        }
+
+        @Override
+        public JSCall evaluateJavascriptAsync(String expression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JSCall evaluateJavascriptAsync(String expression, long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mFunctionTable = FunctionTable.create(mOwner);
+        mBridgeString = Payloads.bridgeString(payload, mFunctionTable.bridgeID());
+        mValue = new JSValue(mBridgeString);
+        mFunction = new JSValue("{\"__rawValue\": \"function:1:\"}");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFunctionTable.close();
+    }
+
+    @Benchmark
+    public JSValue decode() {
+        return new JSValue(mBridgeString);
+    }
+
+    @Benchmark
+    public Object decodeLazy() {
+        // reads the top level, which is all some callers ever look at.
+        JSValue value = JSValue.lazy(mBridgeString);
+        return value.isArray() ? value.listValue() : value.mapValue();
+    }
+
+    @Benchmark
+    public JSValue decodeOrgJson() throws Exception {
+        return JSValueCodecs.ORG_JSON.decode(mBridgeString);
+    }
+
+    @Benchmark
+    public String encode() {
+        return mValue.javascriptStringValue();
+    }
+
+    @Benchmark
+    public String callScript() {
+        mFunction.callFunction(mContext, new Object[] { mValue });
+        return mScript;
+    }
+}
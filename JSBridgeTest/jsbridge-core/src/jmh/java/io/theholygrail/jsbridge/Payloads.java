@@ -0,0 +1,126 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * Bridge strings shaped like what pages send, built the way valueToBridgeString() would.
+ */
+final class Payloads {
+    static final String FLAT = "flat";
+    static final String NESTED = "nested";
+    static final String NUMBERS = "numbers";
+    static final String CALLBACKS = "callbacks";
+
+    private static final int FLAT_FIELDS = 40;
+    private static final int NESTED_DEPTH = 32;
+    private static final int NUMBER_COUNT = 50000;
+    private static final int CALLBACK_COUNT = 500;
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns the bridge string for the given payload.  Functions in it belong to bridgeID.
+     */
+    static String bridgeString(String payload, int bridgeID) {
+        StringBuilder builder = new StringBuilder();
+
+        if (FLAT.equals(payload)) {
+            builder.append("{\"__rawValue\": ");
+            appendFlat(builder, 0);
+        } else if (NESTED.equals(payload)) {
+            builder.append("{\"__rawValue\": ");
+            appendNested(builder, NESTED_DEPTH);
+        } else if (NUMBERS.equals(payload)) {
+            builder.append("{\"__rawValue\": ");
+            appendNumbers(builder);
+        } else if (CALLBACKS.equals(payload)) {
+            appendCallbacks(builder, bridgeID);
+        } else {
+            throw new IllegalArgumentException("Unknown payload: " + payload);
+        }
+
+        return builder.append('}').toString();
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    // a record with a bit of everything, ie: a form or a list row.
+    private static void appendFlat(StringBuilder builder, int seed) {
+        builder.append('{');
+        for (int i = 0; i < FLAT_FIELDS; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("\"field").append(i).append("\": ");
+
+            switch (i % 5) {
+                case 0:
+                    builder.append("\"value ").append(seed + i).append(" with \\\"quotes\\\" and \\u00e9\"");
+                    break;
+                case 1:
+                    builder.append(seed * 1000 + i);
+                    break;
+                case 2:
+                    builder.append(seed + i + 0.25);
+                    break;
+                case 3:
+                    builder.append(i % 2 == 0);
+                    break;
+                default:
+                    builder.append("null");
+            }
+        }
+        builder.append('}');
+    }
+
+    private static void appendNested(StringBuilder builder, int depth) {
+        builder.append("{\"depth\": ").append(depth)
+                .append(", \"name\": \"level ").append(depth).append('"')
+                .append(", \"tags\": [\"a\", \"b\", \"c\"]");
+        if (depth > 0) {
+            builder.append(", \"siblings\": [");
+            appendFlat(builder, depth);
+            builder.append("], \"child\": ");
+            appendNested(builder, depth - 1);
+        }
+        builder.append('}');
+    }
+
+    // coordinates or samples, half whole numbers and half not.
+    private static void appendNumbers(StringBuilder builder) {
+        builder.append('[');
+        for (int i = 0; i < NUMBER_COUNT; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            if (i % 2 == 0) {
+                builder.append(i * 7);
+            } else {
+                builder.append(i * 0.001);
+            }
+        }
+        builder.append(']');
+    }
+
+    // requests each carrying their own success and error callbacks.
+    private static void appendCallbacks(StringBuilder builder, int bridgeID) {
+        builder.append("{\"__bridgeID\": ").append(bridgeID).append(", \"__functions\": [");
+        for (int i = 1; i <= CALLBACK_COUNT * 2; i++) {
+            if (i > 1) {
+                builder.append(',');
+            }
+            builder.append(i);
+        }
+
+        builder.append("], \"__rawValue\": [");
+        for (int i = 0; i < CALLBACK_COUNT; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"request\": ").append(i)
+                    .append(", \"onSuccess\": \"function:").append(i * 2 + 1)
+                    .append(":ZnVuY3Rpb24ocmVzdWx0KSB7IHJldHVybiByZXN1bHQ7IH0=\"")
+                    .append(", \"onError\": \"function:").append(i * 2 + 2).append(":\"}");
+        }
+        builder.append(']');
+    }
+}
@@ -0,0 +1,50 @@
+package io.theholygrail.jsbridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the javascript stubs for an exported class, which happens for every interface in every
+ * page that loads.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class StubBenchmark {
+    // off Android every public method is exported, see BridgePlatform.
+    public static class Exported {
+        public void scrolled(int x, long y, double velocity, boolean settled, String extra) {
+        }
+
+        public void tapped(String where) {
+        }
+
+        public void loaded(String url, int status) {
+        }
+
+        public void resized(double width, double height) {
+        }
+
+        public String name() {
+            return "exported";
+        }
+
+        @PackedArguments
+        public void updated(String arguments) {
+        }
+    }
+
+    private final JSBinding mBinding = JSBindings.forClass(Exported.class);
+
+    @Benchmark
+    public String javascriptStubs() {
+        return mBinding.javascriptStubs("page");
+    }
+}
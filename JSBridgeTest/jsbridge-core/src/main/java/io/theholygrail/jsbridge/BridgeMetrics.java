@@ -0,0 +1,77 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * Where the bridge reports what it's doing, for every JSWebView in the process.
+ *
+ * Nothing is measured until a Listener is set, each measurement is only a check for null
+ * otherwise.  Listeners are called on whatever thread did the work, ie: the JavaBridge thread
+ * for calls from javascript, so they should be quick and thread safe.  BridgeStats is one that
+ * keeps counts and histograms of everything.
+ */
+public final class BridgeMetrics {
+    /**
+     * Gets told about each thing the bridge measures.  Override what you're interested in.
+     */
+    public abstract static class Listener {
+        /**
+         * An exported method was called from javascript.  nanos covers decoding its arguments
+         * and running it, see setListener().
+         */
+        public void onJavascriptCall(String interfaceName, String methodName, long nanos) {
+        }
+
+        /**
+         * A bridge string of the given length was decoded.  Lazily decoded values only count the
+         * part that was read up front.
+         */
+        public void onDecode(int length, long nanos) {
+        }
+
+        /**
+         * Scripts were sent to the page as one evaluation.
+         */
+        public void onScriptSent(int length, int scriptCount) {
+        }
+
+        /**
+         * A result came back from javascript, nanos after it was asked for.  Includes the time
+         * spent waiting behind other scripts.
+         */
+        public void onResult(long nanos) {
+        }
+
+        /**
+         * The number of results a web view is waiting on changed.
+         */
+        public void onPendingResults(int count) {
+        }
+
+        /**
+         * The number of references Java holds to functions in a page changed.  The page keeps
+         * each function in its cache until every reference to it is released.
+         */
+        public void onFunctionCacheSize(int bridgeID, int size) {
+        }
+    }
+
+    private static volatile Listener sListener = null;
+
+    private BridgeMetrics() {
+    }
+
+    /**
+     * Sets the listener, or null to stop measuring.
+     *
+     * Exported methods are called by WebView itself, so while there's a listener each page is
+     * told to time them, the stub making the call as usual in between.  That time also covers
+     * getting into Java and back once more, so it's a little high for the quickest methods.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+        BridgePlatform.get().instrumentationChanged();
+    }
+
+    public static Listener getListener() {
+        return sListener;
+    }
+}
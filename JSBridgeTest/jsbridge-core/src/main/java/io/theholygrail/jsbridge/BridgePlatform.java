@@ -0,0 +1,68 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.reflect.Method;
+
+/**
+ * The few things the bridge needs to know about wherever it's running.
+ *
+ * jsbridge-core doesn't know about Android.  On its own, ie: in benchmarks on a build machine,
+ * there's no main thread to keep from waiting, nowhere to send trace sections, and every public
+ * method of an exported class counts.  When jsbridge is there too its AndroidPlatform is used
+ * instead, found by name the first time it's needed.
+ */
+class BridgePlatform {
+    private static final String ANDROID_PLATFORM = "io.theholygrail.jsbridge.AndroidPlatform";
+
+    private static final BridgePlatform sPlatform = find();
+
+    static BridgePlatform get() {
+        return sPlatform;
+    }
+
+    /**
+     * Returns whether the current thread is the one javascript results are delivered on, so it
+     * must never wait on a JSCall.
+     */
+    boolean isMainThread() {
+        return false;
+    }
+
+    /**
+     * Starts a BridgeTrace section on the current thread.
+     */
+    void beginSection(String name) {
+    }
+
+    void endSection() {
+    }
+
+    /**
+     * Called when a BridgeMetrics listener is set or BridgeTrace is turned on or off, so pages
+     * can start or stop timing calls to exported methods.
+     */
+    void instrumentationChanged() {
+    }
+
+    /**
+     * Returns whether javascript can call the given public method of an exported object.
+     */
+    boolean isExported(Method method) {
+        return method.getDeclaringClass() != Object.class;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static BridgePlatform find() {
+        BridgePlatform result = null;
+
+        try {
+            result = (BridgePlatform)Class.forName(ANDROID_PLATFORM).newInstance();
+        } catch (ClassNotFoundException e) {
+            // not on Android, that's fine.
+        } catch (InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+
+        return result != null ? result : new BridgePlatform();
+    }
+}
@@ -0,0 +1,218 @@
+package io.theholygrail.jsbridge;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A BridgeMetrics listener that keeps counts and histograms of everything, ie:
+ *
+ *     BridgeStats stats = new BridgeStats();
+ *     BridgeMetrics.setListener(stats);
+ *     ...
+ *     Log.i(TAG, "decode p90: " + stats.decodeNanos().percentile(0.9) + " ns");
+ *
+ * Recording is a few atomic increments.  Nothing is allocated apart from the first time each
+ * exported method or page is seen.
+ */
+public class BridgeStats extends BridgeMetrics.Listener {
+    // by interface, then method.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>> mCalls = new ConcurrentHashMap<>();
+    private final Histogram mDecodeNanos = new Histogram();
+    private final Histogram mDecodeLength = new Histogram();
+    private final Histogram mScriptLength = new Histogram();
+    private final Histogram mResultNanos = new Histogram();
+    private final AtomicInteger mPendingResults = new AtomicInteger();
+    private final AtomicInteger mPeakPendingResults = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, AtomicInteger> mFunctionCacheSizes = new ConcurrentHashMap<>();
+
+    /**
+     * Counts values in power of two buckets, so percentiles are accurate to within a factor of
+     * two.  Plenty for telling 1 ms from 10 ms, and recording never allocates or locks.
+     */
+    public static final class Histogram {
+        private static final int BUCKET_COUNT = 64;
+
+        // bucket i holds values below 2^i, and at least 2^(i - 1).  Values are never negative, so
+        // the top bucket ends at Long.MAX_VALUE.
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+
+            mBuckets.incrementAndGet(BUCKET_COUNT - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        public long count() {
+            return mCount.get();
+        }
+
+        public long sum() {
+            return mSum.get();
+        }
+
+        public long max() {
+            return mMax.get();
+        }
+
+        public double mean() {
+            long count = mCount.get();
+            return count > 0 ? mSum.get() / (double)count : 0;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of values, ie: 0.5
+         * for the median.  Never more than max().
+         */
+        public long percentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long)Math.ceil(count * fraction));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    long bound = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(bound, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count %d, mean %.0f, p50 %d, p90 %d, max %d", count(), mean(),
+                    percentile(0.5), percentile(0.9), max());
+        }
+    }
+
+    /**
+     * Time spent in each exported method so far, keyed by "interface.method".
+     */
+    public Map<String, Histogram> calls() {
+        Map<String, Histogram> result = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> methods : mCalls.entrySet()) {
+            for (Map.Entry<String, Histogram> method : methods.getValue().entrySet()) {
+                result.put(methods.getKey() + "." + method.getKey(), method.getValue());
+            }
+        }
+        return result;
+    }
+
+    public Histogram decodeNanos() {
+        return mDecodeNanos;
+    }
+
+    public Histogram decodeLength() {
+        return mDecodeLength;
+    }
+
+    public Histogram scriptLength() {
+        return mScriptLength;
+    }
+
+    public Histogram resultNanos() {
+        return mResultNanos;
+    }
+
+    public int pendingResults() {
+        return mPendingResults.get();
+    }
+
+    public int peakPendingResults() {
+        return mPeakPendingResults.get();
+    }
+
+    /**
+     * The number of functions the page with the given bridge ID is holding on to.
+     */
+    public int functionCacheSize(int bridgeID) {
+        AtomicInteger size = mFunctionCacheSizes.get(bridgeID);
+        return size != null ? size.get() : 0;
+    }
+
+    @Override
+    public void onJavascriptCall(String interfaceName, String methodName, long nanos) {
+        ConcurrentHashMap<String, Histogram> methods = mCalls.get(interfaceName);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<>();
+
+            ConcurrentHashMap<String, Histogram> existing = mCalls.putIfAbsent(interfaceName, methods);
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+
+        Histogram histogram = methods.get(methodName);
+        if (histogram == null) {
+            histogram = new Histogram();
+
+            Histogram existing = methods.putIfAbsent(methodName, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+
+        histogram.record(nanos);
+    }
+
+    @Override
+    public void onDecode(int length, long nanos) {
+        mDecodeLength.record(length);
+        mDecodeNanos.record(nanos);
+    }
+
+    @Override
+    public void onScriptSent(int length, int scriptCount) {
+        mScriptLength.record(length);
+    }
+
+    @Override
+    public void onResult(long nanos) {
+        mResultNanos.record(nanos);
+    }
+
+    @Override
+    public void onPendingResults(int count) {
+        mPendingResults.set(count);
+
+        int peak = mPeakPendingResults.get();
+        while (count > peak && !mPeakPendingResults.compareAndSet(peak, count)) {
+            peak = mPeakPendingResults.get();
+        }
+    }
+
+    @Override
+    public void onFunctionCacheSize(int bridgeID, int size) {
+        AtomicInteger current = mFunctionCacheSizes.get(bridgeID);
+
+        if (current == null) {
+            current = new AtomicInteger();
+
+            AtomicInteger existing = mFunctionCacheSizes.putIfAbsent(bridgeID, current);
+            if (existing != null) {
+                current = existing;
+            }
+        }
+
+        current.set(size);
+    }
+}
@@ -0,0 +1,72 @@
+package io.theholygrail.jsbridge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Marks what the bridge is doing in systrace and Perfetto, for every JSWebView in the process.
+ *
+ * Off by default, and each place that's traced is only a check of a volatile otherwise.  While
+ * it's on the bridge adds sections named "jsbridge:..." for decoding and building values,
+ * scripts headed to the page, exporting interfaces and each call from javascript, the last ones
+ * labeled by interface and method.  On Android they're android.os.Trace sections, so they need
+ * Jelly Bean MR2 or later and an app that can be traced, ie: a debuggable build.
+ *
+ * Calls from Java into the page get an ID, and javascript times them with the user timing API
+ * under the same "jsbridge:call <ID>" name, so a trace that includes the web view's own
+ * categories shows both sides of each call lined up.
+ */
+public final class BridgeTrace {
+    private static volatile boolean sEnabled = false;
+    private static final AtomicInteger sCallIDs = new AtomicInteger();
+
+    private BridgeTrace() {
+    }
+
+    /**
+     * Turns tracing on or off.  Can be changed at any time, sections already started are ended
+     * either way.
+     *
+     * Exported methods are called by WebView itself, so like BridgeMetrics, each page is told
+     * to mark the calls it makes to them while tracing is on.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        BridgePlatform.get().instrumentationChanged();
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    // Protected stuff -----------------------------------------------------------------------------
+
+    /**
+     * Starts a section.  Callers check isEnabled() first and hang on to the answer, so every
+     * begin() is matched with an end() even if tracing is turned off in between.
+     */
+    static void begin(String name) {
+        BridgePlatform.get().beginSection(name);
+    }
+
+    static void begin(String name, String detail) {
+        BridgePlatform.get().beginSection(name + " " + detail);
+    }
+
+    static void end() {
+        BridgePlatform.get().endSection();
+    }
+
+    /**
+     * Returns the ID for the next call into the page, only used to name its sections.
+     */
+    static int nextCallID() {
+        return sCallIDs.incrementAndGet();
+    }
+
+    /**
+     * Wraps a javascript expression so the page times it as the call with the given ID.
+     */
+    static String timedCall(int callID, String expression) {
+        return "__bridgeTrace(" + callID + ", function() { return (" + expression + "); })";
+    }
+}
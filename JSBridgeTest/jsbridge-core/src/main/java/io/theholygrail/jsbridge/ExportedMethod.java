@@ -0,0 +1,151 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+
+/**
+ * An exported method as seen from Java, what its arguments are decoded into, where it asked to
+ * run and how to call it.  Calls javascript makes through __bridgeDispatch go through one of
+ * these rather than the WebView.
+ *
+ * jsbridge-compiler writes these out for each class it generates a JSBinding for, calling the
+ * method straight from invoke().  Classes without one have theirs found by reflection.
+ */
+public abstract class ExportedMethod {
+    private final String mName;
+    private final Type[] mParameterTypes;
+    private final Class<?>[] mParameterClasses;
+    private final boolean mReturnsValue;
+    private final boolean mPacked;
+    private final String mDispatch;
+
+    /**
+     * parameterTypes can hold parameterized types, see parameterized(), or null for any that
+     * can't be decoded into.  dispatch is the name of the method's own @DispatchOn, if it has
+     * one.
+     */
+    protected ExportedMethod(String name, Type[] parameterTypes, boolean returnsValue, boolean packed, String dispatch) {
+        mName = name;
+        mParameterTypes = parameterTypes;
+        mParameterClasses = new Class<?>[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            mParameterClasses[i] = rawClass(parameterTypes[i]);
+        }
+        mReturnsValue = returnsValue;
+        mPacked = packed;
+        mDispatch = dispatch;
+    }
+
+    /**
+     * Calls the method on the given object.  Primitive parameters are passed boxed, and never
+     * null.  Anything the method throws is thrown on as it is.
+     */
+    public abstract void invoke(Object target, Object[] arguments) throws Exception;
+
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * Returns the type of a parameterized parameter, ie: parameterized(List.class, Item.class)
+     * for a List<Item>.
+     */
+    public static Type parameterized(Class<?> rawType, Type... typeArguments) {
+        return new Parameterized(rawType, typeArguments);
+    }
+
+    // Protected stuff -----------------------------------------------------------------------------
+
+    Type[] parameterTypes() {
+        return mParameterTypes;
+    }
+
+    Class<?>[] parameterClasses() {
+        return mParameterClasses;
+    }
+
+    boolean returnsValue() {
+        return mReturnsValue;
+    }
+
+    boolean isPacked() {
+        return mPacked;
+    }
+
+    String dispatch() {
+        return mDispatch;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    // Object for anything without a class of its own, TypeAdapters turns those down.
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>)type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>)((ParameterizedType)type).getRawType();
+        }
+        return Object.class;
+    }
+
+    /*
+    Equal to the ParameterizedType reflection gives for the same type, so both find the same
+    TypeAdapter.
+     */
+    private static final class Parameterized implements ParameterizedType {
+        private final Class<?> mRawType;
+        private final Type[] mTypeArguments;
+
+        Parameterized(Class<?> rawType, Type[] typeArguments) {
+            mRawType = rawType;
+            mTypeArguments = typeArguments.clone();
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return mTypeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return mRawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return mRawType.getDeclaringClass();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ParameterizedType)) {
+                return false;
+            }
+
+            ParameterizedType type = (ParameterizedType)other;
+            Type owner = getOwnerType();
+            return mRawType.equals(type.getRawType()) &&
+                    (owner == null ? type.getOwnerType() == null : owner.equals(type.getOwnerType())) &&
+                    Arrays.equals(mTypeArguments, type.getActualTypeArguments());
+        }
+
+        // same as the JDK's and Android's.
+        @Override
+        public int hashCode() {
+            Type owner = getOwnerType();
+            return Arrays.hashCode(mTypeArguments) ^ (owner != null ? owner.hashCode() : 0) ^ mRawType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(mRawType.getName()).append('<');
+            for (int i = 0; i < mTypeArguments.length; i++) {
+                Type argument = mTypeArguments[i];
+                builder.append(i == 0 ? "" : ", ")
+                        .append(argument instanceof Class ? ((Class<?>)argument).getName() : String.valueOf(argument));
+            }
+            return builder.append('>').toString();
+        }
+    }
+}
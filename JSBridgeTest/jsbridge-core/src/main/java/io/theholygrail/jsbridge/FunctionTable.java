@@ -0,0 +1,191 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Java side of a page's function cache.
+ *
+ * Every function that comes across the bridge is retained by the page until Java says it's done
+ * with it.  Each JSFunction decoded from a page gets a handle here, and the page is told to
+ * release the function when the JSFunction is released explicitly, or once it has been garbage
+ * collected.  Collected handles are picked up whenever new functions are tracked, so a quiet
+ * page doesn't cost anything.
+ *
+ * Tables are looked up by the bridge ID the page puts in its bridge strings.  Each page gets its
+ * own table, and hands out function IDs starting from functionIDBase(), so a reference kept from
+ * an earlier page can't end up calling, or releasing, a function in the page that replaced it.
+ */
+final class FunctionTable {
+    interface Owner {
+        /**
+         * Tells the page to release the given comma separated function IDs.  Called from any
+         * thread.
+         */
+        void releaseFunctions(String ids);
+    }
+
+    private static final AtomicInteger sNextBridgeID = new AtomicInteger(1);
+    private static final Map<Integer, FunctionTable> sTables = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<JSFunction> sCollected = new ReferenceQueue<>();
+
+    private final int mBridgeID;
+    // the owner holds on to us, not the other way around.
+    private final WeakReference<Owner> mOwner;
+    // keeps handles reachable until they're released or enqueued.
+    private final Set<Handle> mHandles = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+    private final AtomicInteger mTracked = new AtomicInteger();
+    private final AtomicInteger mReleased = new AtomicInteger();
+    private final AtomicInteger mCollected = new AtomicInteger();
+    private volatile boolean mClosed = false;
+
+    private FunctionTable(int bridgeID, Owner owner) {
+        mBridgeID = bridgeID;
+        mOwner = new WeakReference<>(owner);
+    }
+
+    static FunctionTable create(Owner owner) {
+        FunctionTable result = new FunctionTable(sNextBridgeID.getAndIncrement(), owner);
+        sTables.put(result.mBridgeID, result);
+        return result;
+    }
+
+    /**
+     * Returns the table for a bridge ID, or null if it's unknown or has been closed.
+     */
+    static FunctionTable forBridgeID(int bridgeID) {
+        return sTables.get(bridgeID);
+    }
+
+    int bridgeID() {
+        return mBridgeID;
+    }
+
+    /**
+     * Where the page with the given bridge ID starts counting function IDs from.  Each page has
+     * 2^32 IDs to itself, which stays exact in javascript for the first 2^21 bridge IDs.
+     */
+    static long functionIDBase(int bridgeID) {
+        return (long)bridgeID << 32;
+    }
+
+    /**
+     * Stops tracking, ie: the page is gone and there's nobody left to tell.
+     */
+    void close() {
+        mClosed = true;
+        sTables.remove(mBridgeID);
+        mHandles.clear();
+    }
+
+    /**
+     * Creates a tracked function for an ID the page has retained on our behalf.
+     */
+    JSFunction track(String id) {
+        drainCollected();
+
+        JSFunction result = new JSFunction(id, null);
+        if (!mClosed) {
+            Handle handle = new Handle(result, this, id);
+            result.mHandle = handle;
+            mHandles.add(handle);
+            mTracked.incrementAndGet();
+            reportSize();
+        }
+        return result;
+    }
+
+    int liveCount() {
+        return mHandles.size();
+    }
+
+    int trackedCount() {
+        return mTracked.get();
+    }
+
+    int releasedCount() {
+        return mReleased.get();
+    }
+
+    int collectedCount() {
+        return mCollected.get();
+    }
+
+    /**
+     * Releases everything that's been garbage collected since the last time we looked, one call
+     * to the owner per table.
+     */
+    static void drainCollected() {
+        Reference<? extends JSFunction> reference = sCollected.poll();
+        if (reference == null) {
+            return;
+        }
+
+        Map<FunctionTable, StringBuilder> ids = new HashMap<>();
+        while (reference != null) {
+            Handle handle = (Handle)reference;
+            if (handle.mReleased.compareAndSet(false, true) && handle.mTable.mHandles.remove(handle)) {
+                handle.mTable.mCollected.incrementAndGet();
+
+                StringBuilder builder = ids.get(handle.mTable);
+                if (builder == null) {
+                    builder = new StringBuilder();
+                    ids.put(handle.mTable, builder);
+                } else {
+                    builder.append(',');
+                }
+                builder.append(handle.mID);
+            }
+            reference = sCollected.poll();
+        }
+
+        for (Map.Entry<FunctionTable, StringBuilder> entry : ids.entrySet()) {
+            entry.getKey().sendRelease(entry.getValue().toString());
+            entry.getKey().reportSize();
+        }
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private void reportSize() {
+        BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+        if (listener != null) {
+            listener.onFunctionCacheSize(mBridgeID, mHandles.size());
+        }
+    }
+
+    private void sendRelease(String ids) {
+        Owner owner = mOwner.get();
+        if (owner != null && !mClosed) {
+            owner.releaseFunctions(ids);
+        }
+    }
+
+    static final class Handle extends WeakReference<JSFunction> {
+        private final FunctionTable mTable;
+        private final String mID;
+        private final AtomicBoolean mReleased = new AtomicBoolean(false);
+
+        Handle(JSFunction function, FunctionTable table, String id) {
+            super(function, sCollected);
+            mTable = table;
+            mID = id;
+        }
+
+        void release() {
+            if (mReleased.compareAndSet(false, true) && mTable.mHandles.remove(this)) {
+                mTable.mReleased.incrementAndGet();
+                mTable.sendRelease(mID);
+                mTable.reportSize();
+            }
+        }
+    }
+}
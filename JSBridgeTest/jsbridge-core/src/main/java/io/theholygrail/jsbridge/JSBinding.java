@@ -0,0 +1,31 @@
+package io.theholygrail.jsbridge;
+
+import java.util.List;
+
+/**
+ * Describes how an exported object is exposed to javascript.
+ *
+ * jsbridge-compiler generates one of these for each class with @JavascriptInterface methods,
+ * named after the class with a $$JSBinding suffix.  Classes without one get a binding built by
+ * reflection the first time they're exported.
+ */
+public interface JSBinding {
+    /**
+     * Returns the script that creates the javascript proxy object for the given interface name,
+     * along with a stub for each exported method.
+     */
+    String javascriptStubs(String interfaceName);
+
+    /**
+     * Returns every exported method, including ones taking objects, that can be called without
+     * reflection.  Returns null if the binding doesn't know them, ie: it was built by reflection,
+     * and they have to be looked up on the class instead.
+     */
+    List<ExportedMethod> exportedMethods();
+
+    /**
+     * Returns the name of the class's @DispatchOn, or null if it doesn't have one.  Only used when
+     * exportedMethods() isn't null.
+     */
+    String dispatch();
+}
@@ -0,0 +1,201 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds and caches the JSBinding for exported classes.
+ */
+final class JSBindings {
+    static final String GENERATED_SUFFIX = "$$JSBinding";
+
+    private static final ConcurrentHashMap<Class<?>, JSBinding> sBindings = new ConcurrentHashMap<>();
+
+    private JSBindings() {
+    }
+
+    /**
+     * Returns the generated binding for the given class if there is one, otherwise one built
+     * from its @JavascriptInterface methods.  Either way this only happens once per class.
+     */
+    static JSBinding forClass(Class<?> cls) {
+        JSBinding result = sBindings.get(cls);
+
+        if (result == null) {
+            result = loadGeneratedBinding(cls);
+            if (result == null) {
+                result = new ReflectiveBinding(cls);
+            }
+
+            JSBinding existing = sBindings.putIfAbsent(cls, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether a @PackedArguments method takes the single String it needs.
+     */
+    static boolean isPackedSignature(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        return parameterTypes.length == 1 && parameterTypes[0] == String.class;
+    }
+
+    /**
+     * Returns whether every parameter is a type javascript can pass, String, int, long, double or
+     * boolean.
+     */
+    static boolean hasExportableParameters(Method method) {
+        for (Class<?> paramClass : method.getParameterTypes()) {
+            if (paramClass != String.class && paramClass != int.class && paramClass != long.class &&
+                    paramClass != double.class && paramClass != boolean.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a method takes objects decoded with TypeAdapters, which only dispatch stubs
+     * can pass, along with anything a normal stub can.
+     */
+    static boolean hasObjectParameters(Method method) {
+        return hasObjectParameters(method.getParameterTypes());
+    }
+
+    static boolean hasObjectParameters(Class<?>[] parameterTypes) {
+        boolean result = false;
+
+        for (Class<?> paramClass : parameterTypes) {
+            if (paramClass.isPrimitive()) {
+                if (paramClass != int.class && paramClass != long.class && paramClass != double.class &&
+                        paramClass != boolean.class) {
+                    return false;
+                }
+            } else if (paramClass != String.class) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends the javascript a stub passes for the given parameter, ie: valueToBridgeString(arg0).
+     * Objects are passed as they are, they're only ever inside a dispatch stub's bridge string.
+     */
+    static void appendArgument(StringBuilder builder, Class<?> paramClass, int index) {
+        if (paramClass == String.class) {
+            builder.append("valueToBridgeString(arg").append(index).append(')');
+        } else if (paramClass == boolean.class) {
+            builder.append("Boolean(arg").append(index).append(')');
+        } else if (paramClass.isPrimitive()) {
+            builder.append("Number(arg").append(index).append(')');
+        } else {
+            builder.append("arg").append(index);
+        }
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static JSBinding loadGeneratedBinding(Class<?> cls) {
+        JSBinding result = null;
+
+        try {
+            Class<?> bindingClass = Class.forName(cls.getName() + GENERATED_SUFFIX, true, cls.getClassLoader());
+            result = (JSBinding)bindingClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            // no generated binding, that's fine.
+        } catch (InstantiationException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+
+        return result;
+    }
+
+    // the start of a stub's call, up to the Java method's arguments, ie:
+    // return __bridgeTimed(name, 'tapped', function() { return bridge().tapped(
+    // the stub closes it with "); }); };".
+    private static void appendTimed(StringBuilder builder, String methodName) {
+        builder.append("return __bridgeTimed(name, '").append(methodName).append("', function() { return bridge().")
+                .append(methodName).append('(');
+    }
+
+    /*
+    Fallback for classes that weren't run through jsbridge-compiler.  Only methods annotated with
+    @JavascriptInterface are exported on Android, same as what the WebView itself will let through,
+    see BridgePlatform.isExported().
+
+    String parameters get a bridge string.  int, long, double and boolean parameters are passed
+    as they are, the WebView converts those itself, so they skip the encode and decode entirely.
+    @PackedArguments methods get all their arguments in one bridge string.
+
+    The stubs are written once, as a function taking the proxy object, a way to get at the Java
+    one and the interface name, the same as a generated binding's.  The Java object is looked up
+    on each call, since it's only there in pages loaded after it was added.  Each call goes
+    through __bridgeTimed(), so it can be measured without changing how it's made.
+     */
+    private static final class ReflectiveBinding implements JSBinding {
+        private final String mStubs;
+
+        ReflectiveBinding(Class<?> cls) {
+            StringBuilder builder = new StringBuilder("(function(object, bridge, name) {\n");
+
+            for (Method method : cls.getMethods()) {
+                if (!BridgePlatform.get().isExported(method)) {
+                    continue;
+                }
+
+                String methodName = method.getName();
+                if (method.isAnnotationPresent(PackedArguments.class)) {
+                    if (isPackedSignature(method)) {
+                        builder.append("object.").append(methodName).append(" = function() { var args = arguments; ");
+                        appendTimed(builder, methodName);
+                        builder.append("argumentsToBridgeString(args)); }); };\n");
+                    }
+                    continue;
+                } else if (!hasExportableParameters(method)) {
+                    continue;
+                }
+
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                int parameterCount = parameterTypes.length;
+
+                builder.append("object.").append(methodName).append(" = function(");
+                for (int i = 0; i < parameterCount; i++) {
+                    builder.append(i == 0 ? "arg" : ", arg").append(i);
+                }
+                builder.append(") { ");
+                appendTimed(builder, methodName);
+                for (int i = 0; i < parameterCount; i++) {
+                    if (i > 0) {
+                        builder.append(", ");
+                    }
+                    appendArgument(builder, parameterTypes[i], i);
+                }
+                builder.append("); }); };\n");
+            }
+
+            mStubs = builder.append("})").toString();
+        }
+
+        @Override
+        public String javascriptStubs(String interfaceName) {
+            return interfaceName + " = { };\n" + mStubs + "(" + interfaceName + ", function() { return __" +
+                    interfaceName + "; }, '" + interfaceName + "');\n";
+        }
+
+        @Override
+        public List<ExportedMethod> exportedMethods() {
+            return null;
+        }
+
+        @Override
+        public String dispatch() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A call into javascript that hasn't necessarily finished yet.
+ *
+ * Returned by JSValue.callFunctionAsync() and JSContext.evaluateJavascriptAsync().  The call
+ * ends one of four ways: with the javascript's result, with a JSException if the javascript
+ * threw, with a TimeoutException if it didn't come back in time, or by being cancelled.  Either
+ * block on it with get(), off the main thread, or add a Callback.
+ */
+public final class JSCall implements Future<JSValue> {
+    /**
+     * Hears about a call once it has finished.  Called on whichever thread finished the call,
+     * or right away if it already has.
+     */
+    public interface Callback {
+        void onResult(JSValue value);
+
+        /**
+         * Called with a JSException, TimeoutException or CancellationException.
+         */
+        void onError(Exception error);
+    }
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final long mDeadlineNanos;
+    private boolean mFinished = false;
+    private JSValue mResult = null;
+    private Exception mError = null;
+    private List<Callback> mCallbacks = null;
+    private Runnable mOnFinished = null;
+
+    /**
+     * timeoutNanos of zero or less means the call never times out.
+     */
+    JSCall(long timeoutNanos) {
+        mDeadlineNanos = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds a callback for when the call finishes.  Returns this so calls can be chained.
+     */
+    public JSCall addCallback(Callback callback) {
+        boolean finished;
+
+        synchronized (this) {
+            finished = mFinished;
+            if (!finished) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(1);
+                }
+                mCallbacks.add(callback);
+            }
+        }
+
+        if (finished) {
+            deliver(callback);
+        }
+        return this;
+    }
+
+    /**
+     * Waits for the result.  Never wait on the main thread, javascript results are delivered
+     * there so it would wait forever.  Once isDone() it's fine from anywhere.
+     */
+    @Override
+    public JSValue get() throws InterruptedException, ExecutionException {
+        checkCanWait();
+        mDone.await();
+        return report();
+    }
+
+    /**
+     * Waits up to the given time for the result.  Timing out here leaves the call running, use
+     * cancel() to give up on it.
+     */
+    @Override
+    public JSValue get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        checkCanWait();
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * Gives up on the call.  The javascript can't be stopped once it has been sent, but its
+     * result is ignored and anything waiting on it is let go.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException("Call was cancelled"));
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mError instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mFinished;
+    }
+
+    // Protected stuff -----------------------------------------------------------------------------
+
+    long deadlineNanos() {
+        return mDeadlineNanos;
+    }
+
+    /**
+     * Runs once when the call finishes, however it finishes.  Used to clean up after it.
+     */
+    void setOnFinished(Runnable onFinished) {
+        boolean finished;
+
+        synchronized (this) {
+            finished = mFinished;
+            mOnFinished = onFinished;
+        }
+
+        if (finished) {
+            onFinished.run();
+        }
+    }
+
+    /**
+     * Finishes the call with the bridge string the page sent back.
+     */
+    boolean complete(String bridgeString) {
+        JSValue result = null;
+        Exception error = null;
+
+        try {
+            result = JSValueDecoder.decodeCallResult(bridgeString);
+        } catch (JSException e) {
+            error = e;
+        } catch (JSONException e) {
+            error = new JSException("Unable to decode result: " + e.getMessage(), null);
+        }
+
+        return finish(result, error);
+    }
+
+    boolean fail(Exception error) {
+        return finish(null, error);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private boolean finish(JSValue result, Exception error) {
+        List<Callback> callbacks;
+        Runnable onFinished;
+
+        synchronized (this) {
+            if (mFinished) {
+                return false;
+            }
+            mFinished = true;
+            mResult = result;
+            mError = error;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            onFinished = mOnFinished;
+        }
+
+        mDone.countDown();
+        if (onFinished != null) {
+            onFinished.run();
+        }
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                deliver(callback);
+            }
+        }
+        return true;
+    }
+
+    private void deliver(Callback callback) {
+        JSValue result;
+        Exception error;
+
+        synchronized (this) {
+            result = mResult;
+            error = mError;
+        }
+
+        if (error != null) {
+            callback.onError(error);
+        } else {
+            callback.onResult(result);
+        }
+    }
+
+    private synchronized JSValue report() throws ExecutionException {
+        if (mError instanceof CancellationException) {
+            throw (CancellationException)mError;
+        } else if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    private void checkCanWait() {
+        if (!isDone() && BridgePlatform.get().isMainThread()) {
+            throw new IllegalStateException("Waiting on a JSCall from the main thread would never finish, use a Callback");
+        }
+    }
+}
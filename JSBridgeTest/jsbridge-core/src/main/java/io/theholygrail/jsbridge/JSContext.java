@@ -0,0 +1,26 @@
+package io.theholygrail.jsbridge;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Somewhere with the bridge's javascript running in it, ie: a JSWebView.  JSValue functions are
+ * called through one of these.
+ */
+public interface JSContext {
+    /**
+     * Runs the given javascript without waiting on it.  Can be called from any thread.
+     */
+    void executeJavascript(String javascript);
+
+    /**
+     * Evaluates a javascript expression and returns a JSCall for its value, timing out after the
+     * context's default.
+     */
+    JSCall evaluateJavascriptAsync(String expression);
+
+    /**
+     * Evaluates a javascript expression and returns a JSCall for its value.  A timeout of zero
+     * waits forever.
+     */
+    JSCall evaluateJavascriptAsync(String expression, long timeout, TimeUnit unit);
+}
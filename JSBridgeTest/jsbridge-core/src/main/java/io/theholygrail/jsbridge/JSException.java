@@ -0,0 +1,21 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * An exception thrown by javascript called through the bridge.  JSCall.get() throws these
+ * wrapped in an ExecutionException.
+ */
+public class JSException extends Exception {
+    private final String mJavascriptStack;
+
+    public JSException(String message, String javascriptStack) {
+        super(message);
+        mJavascriptStack = javascriptStack;
+    }
+
+    /**
+     * Returns the javascript stack trace, or null if the page didn't provide one.
+     */
+    public String getJavascriptStack() {
+        return mJavascriptStack;
+    }
+}
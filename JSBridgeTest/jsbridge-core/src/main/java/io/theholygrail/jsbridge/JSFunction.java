@@ -0,0 +1,145 @@
+package io.theholygrail.jsbridge;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * A reference to a javascript function passed across the bridge.
+ *
+ * Functions come over as "function:<id>:<base64 source>" strings.  They're parsed into one of
+ * these once when decoded, and the source is only decoded if someone asks for it.  The source
+ * part is empty when the bridge has been told not to send it.
+ *
+ * Functions decoded from a page that hands out references are tracked by its FunctionTable,
+ * which tells the page to let go of the function once this is released or garbage collected.
+ */
+final class JSFunction {
+    static final String PREFIX = "function:";
+
+    private final String mID;
+    private String mEncodedSource;
+    private String mSource = null;
+    // set when a FunctionTable is tracking us.
+    FunctionTable.Handle mHandle = null;
+
+    JSFunction(String id, String encodedSource) {
+        mID = id;
+        mEncodedSource = encodedSource;
+    }
+
+    static boolean isFunctionString(String value) {
+        return value.startsWith(PREFIX);
+    }
+
+    /**
+     * Parses a "function:<id>:<base64 source>" string.  Callers should check it with
+     * isFunctionString() first.
+     */
+    static JSFunction parse(String value) {
+        int idStart = PREFIX.length();
+        int idEnd = value.indexOf(':', idStart);
+
+        if (idEnd < 0) {
+            return new JSFunction(value.substring(idStart), null);
+        } else {
+            String encodedSource = idEnd + 1 < value.length() ? value.substring(idEnd + 1) : null;
+            return new JSFunction(value.substring(idStart, idEnd), encodedSource);
+        }
+    }
+
+    String id() {
+        return mID;
+    }
+
+    synchronized String encodedSource() {
+        return mEncodedSource;
+    }
+
+    /**
+     * Fills in the source for a function that was known by ID before its string was decoded.
+     */
+    synchronized void setEncodedSource(String encodedSource) {
+        if (mEncodedSource == null) {
+            mEncodedSource = encodedSource;
+        }
+    }
+
+    /**
+     * Lets the page drop its reference to this function.  Does nothing if it's already been
+     * released, or isn't tracked.
+     */
+    void release() {
+        if (mHandle != null) {
+            mHandle.release();
+        }
+    }
+
+    /**
+     * Returns the function's javascript source, or null if it wasn't sent.
+     */
+    synchronized String source() {
+        if (mSource == null && mEncodedSource != null) {
+            // decode it back to it's javascript origins.
+            byte[] data = decodeBase64(mEncodedSource);
+
+            try {
+                mSource = new String(data, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return mSource;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return PREFIX + mID + ":" + (mEncodedSource != null ? mEncodedSource : "");
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    /*
+    What btoa() puts out.  Done by hand since android.util.Base64 isn't around off Android, and
+    java.util.Base64 isn't around on it.  Padding and anything else outside the alphabet is
+    skipped.
+     */
+    private static byte[] decodeBase64(String encoded) {
+        byte[] result = new byte[encoded.length() * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+
+        for (int i = 0; i < encoded.length(); i++) {
+            int value = base64Value(encoded.charAt(i));
+            if (value < 0) {
+                continue;
+            }
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                result[length++] = (byte)(bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+}
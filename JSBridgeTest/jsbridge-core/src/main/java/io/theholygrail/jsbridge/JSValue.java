@@ -0,0 +1,904 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by brandon on 4/28/15.
+ */
+
+public class JSValue {
+    /**
+     * The kinds of value a JSValue can hold.
+     */
+    public enum Type {
+        NULL,
+        BOOLEAN,
+        INTEGER,
+        LONG,
+        DOUBLE,
+        STRING,
+        FUNCTION,
+        OBJECT,
+        ARRAY
+    }
+
+    // strings, maps, lists, packed arrays and functions.  numbers and booleans are kept unboxed
+    // in mPrimitive instead, doubles as their raw bits.
+    protected Object mValue = null;
+    private Type mType = Type.NULL;
+    private long mPrimitive = 0;
+    // lazy values hold on to their source until something asks for their contents.
+    private volatile JSValueDecoder.LazySource mSource = null;
+    private int mSourceOffset = 0;
+    // a packed array as JSValues, made the first time listValue() asks for it.
+    private volatile List<JSValue> mPackedList = null;
+
+    public JSValue(Object value) {
+        boolean traced = BridgeTrace.isEnabled();
+        if (traced) {
+            BridgeTrace.begin(value instanceof String ? "jsbridge:JSValue.decode" : "jsbridge:JSValue.decompose");
+        }
+
+        try {
+            if (value instanceof String) {
+                // lets try to decode it with whichever codec is set, see JSValueCodecs.
+                try {
+                    String stringValue = (String)value;
+                    // we only need the value inside, this is only relevant at
+                    // the top level to just bring that value over.
+                    copyFrom(JSValueCodecs.decode(stringValue));
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                copyFrom(JSValue.decompose(value));
+            }
+        } finally {
+            if (traced) {
+                BridgeTrace.end();
+            }
+        }
+    }
+
+    /**
+     * Creates a value from a bridge string that is only decoded as it's accessed.
+     *
+     * Useful for large payloads where only a few fields are ever read.  Nested objects and
+     * arrays are decoded one level at a time as mapValue(), listValue() or get() reach them,
+     * and are kept once decoded.
+     */
+    public static JSValue lazy(String value) {
+        JSValue result;
+
+        try {
+            result = JSValueDecoder.decodeLazyEnvelope(value);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            result = new JSValue();
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a bridge string straight into a new instance of the given class, without building
+     * JSValues for it first.  Members are matched to fields by name, see decodeAs().  Returns null
+     * if the string can't be decoded.
+     */
+    public static <T> T decode(String bridgeString, Class<T> cls) {
+        T result = null;
+
+        try {
+            result = JSValueDecoder.decodeEnvelopeAs(bridgeString, TypeAdapters.forClass(cls));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes the arguments passed to a @PackedArguments method, in the order javascript passed
+     * them.  Returns an empty array if they can't be decoded.
+     */
+    public static JSValue[] unpackArguments(String arguments) {
+        JSValue[] result;
+
+        try {
+            result = JSValueDecoder.decodeArguments(arguments);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            result = new JSValue[0];
+        }
+
+        return result;
+    }
+
+    // Validity checking ---------------------------------------------------------------------------
+
+    public Boolean isValid() {
+        return (type() != Type.NULL);
+    }
+
+    // Type checking -------------------------------------------------------------------------------
+
+    public Type getType() {
+        return type();
+    }
+
+    public Boolean isFunction() {
+        return (type() == Type.FUNCTION);
+    }
+
+    public Boolean isNull() {
+        return (type() == Type.NULL);
+    }
+
+    public Boolean isString() {
+        return (type() == Type.STRING);
+    }
+
+    public Boolean isBoolean() {
+        return (type() == Type.BOOLEAN);
+    }
+
+    public Boolean isNumber() {
+        Type type = type();
+        return (type == Type.INTEGER || type == Type.LONG || type == Type.DOUBLE);
+    }
+
+    public Boolean isInteger() {
+        return (type() == Type.INTEGER);
+    }
+
+    public Boolean isDouble() {
+        return (type() == Type.DOUBLE);
+    }
+
+    public Boolean isObject() {
+        return (type() == Type.OBJECT);
+    }
+
+    public Boolean isMap() {
+        // convenience in case the naming is confusing.
+        return isObject();
+    }
+
+    public Boolean isArray() {
+        return (type() == Type.ARRAY);
+    }
+
+    public Boolean isList() {
+        return isArray();
+    }
+
+    // Value retrieval -----------------------------------------------------------------------------
+
+    public String stringValue() {
+        String result = null;
+
+        switch (type()) {
+            case STRING:
+                result = (String)mValue;
+                break;
+            case INTEGER:
+                result = Integer.toString((int)mPrimitive);
+                break;
+            case LONG:
+                result = Long.toString(mPrimitive);
+                break;
+            case DOUBLE:
+                result = Double.toString(Double.longBitsToDouble(mPrimitive));
+                break;
+        }
+
+        return result;
+    }
+
+    public Integer integerValue() {
+        Integer result = null;
+
+        switch (type()) {
+            case INTEGER:
+            case LONG:
+            case DOUBLE:
+                result = intValue(0);
+                break;
+            case STRING:
+                result = Integer.valueOf((String)mValue);
+                break;
+        }
+
+        return result;
+    }
+
+    public Double doubleValue() {
+        Double result = null;
+
+        switch (type()) {
+            case INTEGER:
+            case LONG:
+            case DOUBLE:
+                result = doubleValue(0);
+                break;
+            case STRING:
+                result = Double.valueOf((String)mValue);
+                break;
+        }
+
+        return result;
+    }
+
+    public Boolean booleanValue() {
+        Boolean result = null;
+
+        switch (type()) {
+            case BOOLEAN:
+                result = mPrimitive != 0;
+                break;
+            case INTEGER:
+            case LONG:
+            case DOUBLE:
+            case STRING:
+                result = Boolean.valueOf(stringValue());
+                break;
+        }
+
+        return result;
+    }
+
+    public Map mapValue() {
+        Map result = null;
+
+        if (type() == Type.OBJECT) {
+            result = (Map)mValue;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the list of JSValues for an array.  Arrays of numbers are held packed, for those
+     * the list is built the first time it's asked for and kept, intArrayValue() and
+     * doubleArrayValue() are still cheaper.
+     */
+    public List listValue() {
+        List result = null;
+
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof List) {
+                result = (List)value;
+            } else {
+                result = packedList(value);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns an array of whole numbers as an int[], or null if it's anything else.  Arrays that
+     * came across as nothing but ints are handed back as they're held, don't modify them.
+     */
+    public int[] intArrayValue() {
+        int[] result = null;
+
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof int[]) {
+                result = (int[])value;
+            } else if (value instanceof List) {
+                List list = (List)value;
+                result = new int[list.size()];
+                for (int i = 0; i < result.length; i++) {
+                    JSValue item = (JSValue)list.get(i);
+                    if (item.type() != Type.INTEGER) {
+                        return null;
+                    }
+                    result[i] = (int)item.mPrimitive;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns an array of numbers as a double[], or null if it's anything else.  Arrays that came
+     * across with any fractional numbers are handed back as they're held, don't modify them.
+     */
+    public double[] doubleArrayValue() {
+        double[] result = null;
+
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof double[]) {
+                result = (double[])value;
+            } else if (value instanceof int[]) {
+                int[] ints = (int[])value;
+                result = new double[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    result[i] = ints[i];
+                }
+            } else if (value instanceof List) {
+                List list = (List)value;
+                result = new double[list.size()];
+                for (int i = 0; i < result.length; i++) {
+                    JSValue item = (JSValue)list.get(i);
+                    if (!item.isNumber()) {
+                        return null;
+                    }
+                    result[i] = item.doubleValue(0);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // Unboxed retrieval ---------------------------------------------------------------------------
+
+    /*
+    These read numbers and booleans straight out of their primitive fields, so nothing is
+    allocated.  Any kind of number converts to the type asked for, anything else returns the
+    given default.  Numbers too big for an int come back as the closest one, Integer.MAX_VALUE or
+    MIN_VALUE, the same as casting a double does, rather than whatever their low bits are.
+     */
+
+    public int intValue(int defaultValue) {
+        switch (type()) {
+            case INTEGER:
+                return (int)mPrimitive;
+            case LONG:
+                return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, mPrimitive));
+            case DOUBLE:
+                return (int)Double.longBitsToDouble(mPrimitive);
+            default:
+                return defaultValue;
+        }
+    }
+
+    public long longValue(long defaultValue) {
+        switch (type()) {
+            case INTEGER:
+            case LONG:
+                return mPrimitive;
+            case DOUBLE:
+                return (long)Double.longBitsToDouble(mPrimitive);
+            default:
+                return defaultValue;
+        }
+    }
+
+    public double doubleValue(double defaultValue) {
+        switch (type()) {
+            case INTEGER:
+            case LONG:
+                return mPrimitive;
+            case DOUBLE:
+                return Double.longBitsToDouble(mPrimitive);
+            default:
+                return defaultValue;
+        }
+    }
+
+    public boolean booleanValue(boolean defaultValue) {
+        return type() == Type.BOOLEAN ? mPrimitive != 0 : defaultValue;
+    }
+
+    /**
+     * Returns the int for a key in this object, or the default if there's no number there.
+     * Keys are looked up as they are, use get() for key paths.
+     */
+    public int getInt(String key, int defaultValue) {
+        JSValue item = member(key);
+        return item != null ? item.intValue(defaultValue) : defaultValue;
+    }
+
+    /**
+     * Returns the int at an index in this array, or the default if there's no number there.
+     */
+    public int getInt(int index, int defaultValue) {
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof int[]) {
+                int[] ints = (int[])value;
+                return index >= 0 && index < ints.length ? ints[index] : defaultValue;
+            } else if (value instanceof double[]) {
+                double[] doubles = (double[])value;
+                return index >= 0 && index < doubles.length ? (int)doubles[index] : defaultValue;
+            }
+        }
+
+        JSValue item = element(index);
+        return item != null ? item.intValue(defaultValue) : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        JSValue item = member(key);
+        return item != null ? item.longValue(defaultValue) : defaultValue;
+    }
+
+    public long getLong(int index, long defaultValue) {
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof int[]) {
+                int[] ints = (int[])value;
+                return index >= 0 && index < ints.length ? ints[index] : defaultValue;
+            } else if (value instanceof double[]) {
+                double[] doubles = (double[])value;
+                return index >= 0 && index < doubles.length ? (long)doubles[index] : defaultValue;
+            }
+        }
+
+        JSValue item = element(index);
+        return item != null ? item.longValue(defaultValue) : defaultValue;
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        JSValue item = member(key);
+        return item != null ? item.doubleValue(defaultValue) : defaultValue;
+    }
+
+    public double getDouble(int index, double defaultValue) {
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof int[]) {
+                int[] ints = (int[])value;
+                return index >= 0 && index < ints.length ? ints[index] : defaultValue;
+            } else if (value instanceof double[]) {
+                double[] doubles = (double[])value;
+                return index >= 0 && index < doubles.length ? doubles[index] : defaultValue;
+            }
+        }
+
+        JSValue item = element(index);
+        return item != null ? item.doubleValue(defaultValue) : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        JSValue item = member(key);
+        return item != null ? item.booleanValue(defaultValue) : defaultValue;
+    }
+
+    public boolean getBoolean(int index, boolean defaultValue) {
+        JSValue item = element(index);
+        return item != null ? item.booleanValue(defaultValue) : defaultValue;
+    }
+
+    /**
+     * Returns the string for a key in this object, or the default if there's no string there.
+     */
+    public String getString(String key, String defaultValue) {
+        JSValue item = member(key);
+        return item != null && item.type() == Type.STRING ? (String)item.mValue : defaultValue;
+    }
+
+    public String getString(int index, String defaultValue) {
+        JSValue item = element(index);
+        return item != null && item.type() == Type.STRING ? (String)item.mValue : defaultValue;
+    }
+
+    /**
+     * Looks up a nested value by key path, ie: "items.3.price".  Path components index into
+     * maps by key and into lists by position.  Returns null if the path doesn't exist.
+     */
+    public JSValue get(String path) {
+        JSValue result = this;
+        int start = 0;
+
+        while (result != null && start <= path.length()) {
+            int end = path.indexOf('.', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String component = path.substring(start, end);
+
+            Type type = result.type();
+            Object value = result.mValue;
+            if (type == Type.OBJECT) {
+                result = (JSValue)((Map)value).get(component);
+            } else if (type == Type.ARRAY && value instanceof List) {
+                List list = (List)value;
+                int index = parseIndex(component);
+                result = (index >= 0 && index < list.size()) ? (JSValue)list.get(index) : null;
+            } else if (type == Type.ARRAY) {
+                int index = parseIndex(component);
+                result = (index >= 0 && index < packedLength(value)) ? packedElement(value, index) : null;
+            } else {
+                result = null;
+            }
+
+            start = end + 1;
+        }
+
+        return result;
+    }
+
+    public String functionSourceValue() {
+        String result = null;
+
+        if (type() == Type.FUNCTION) {
+            result = ((JSFunction)mValue).source();
+        }
+
+        return result;
+    }
+
+    public String functionIDValue() {
+        String result = null;
+
+        if (type() == Type.FUNCTION) {
+            result = ((JSFunction)mValue).id();
+        }
+
+        return result;
+    }
+
+    /**
+     * Lets the page drop the javascript function this value refers to.  Functions are released
+     * once their JSValues are garbage collected anyway, this just lets it happen sooner.  Calling
+     * it on anything other than a function, or more than once, does nothing.
+     *
+     * Don't call the function again afterwards, the page won't have it anymore.
+     */
+    public void release() {
+        if (type() == Type.FUNCTION) {
+            ((JSFunction)mValue).release();
+        }
+    }
+
+    /**
+     * Returns this value as an instance of the given class.
+     *
+     * Each field is set from the member with the same name, members without a field are ignored.
+     * Fields can be Strings, numbers, booleans, enums (by name), JSValues (ie: for functions),
+     * arrays, Lists, Maps with String keys, or other classes like this one.  Members of the wrong
+     * kind leave their field as it was.  The class needs a constructor without arguments.
+     *
+     * A lazy value that hasn't been decoded yet is read straight from its bridge string.  How to
+     * fill in each class is worked out the first time it's used and kept.
+     */
+    public <T> T decodeAs(Class<T> cls) {
+        TypeAdapter<T> adapter = TypeAdapters.forClass(cls);
+
+        JSValueDecoder.LazySource source = mSource;
+        if (source != null) {
+            try {
+                return adapter.read(new JSValueDecoder(source, mSourceOffset));
+            } catch (JSONException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        return adapter.convert(this);
+    }
+
+    /**
+     * Returns this value as javascript source, ie: something that can be passed as an argument
+     * in a script.  Functions come out as references into the page's function cache.  Written by
+     * the codec that's set, see JSValueCodecs.
+     */
+    public String javascriptStringValue() {
+        if (!BridgeTrace.isEnabled()) {
+            return JavascriptWriter.toJavascript(this, JSValueCodecs.getCodec());
+        }
+
+        BridgeTrace.begin("jsbridge:JSValue.javascriptStringValue");
+        try {
+            return JavascriptWriter.toJavascript(this, JSValueCodecs.getCodec());
+        } finally {
+            BridgeTrace.end();
+        }
+    }
+
+    /**
+     * Same as javascriptStringValue(), but appends to the given builder so it can be reused.
+     */
+    public void appendJavascriptString(StringBuilder builder) {
+        JSValueCodecs.getCodec().encode(this, builder);
+    }
+
+    /**
+     * Calls this function with the given arguments, without waiting on its result.  Use
+     * callFunctionAsync() for that, or JSWebView.callFunction() for a ValueCallback, which used
+     * to be passed here along with the web view.
+     */
+    public void callFunction(JSContext context, Object args[]) {
+        if (!isFunction()) {
+            return;
+        }
+
+        // executeJavascript() takes care of getting us over to the right thread.
+        if (BridgeTrace.isEnabled()) {
+            int callID = BridgeTrace.nextCallID();
+            BridgeTrace.begin("jsbridge:call", String.valueOf(callID));
+            try {
+                context.executeJavascript(BridgeTrace.timedCall(callID, callString(args)) + ";");
+            } finally {
+                BridgeTrace.end();
+            }
+        } else {
+            context.executeJavascript(callString(args) + ";");
+        }
+    }
+
+    /**
+     * Calls this function with the given arguments, timing out after the context's default call
+     * timeout.
+     */
+    public JSCall callFunctionAsync(JSContext context, Object args[]) {
+        if (!isFunction()) {
+            throw new IllegalStateException("Not a function: " + getType());
+        }
+        return context.evaluateJavascriptAsync(callString(args));
+    }
+
+    /**
+     * Calls this function with the given arguments.  The JSCall fails with a JSException if the
+     * function throws, or a TimeoutException if there's no result within the given time.
+     */
+    public JSCall callFunctionAsync(JSContext context, Object args[], long timeout, TimeUnit unit) {
+        if (!isFunction()) {
+            throw new IllegalStateException("Not a function: " + getType());
+        }
+        return context.evaluateJavascriptAsync(callString(args), timeout, unit);
+    }
+
+    // Protected stuff -----------------------------------------------------------------------------
+
+    JSValue() {
+        mValue = null;
+    }
+
+    static JSValue lazy(JSValueDecoder.LazySource source, int offset) {
+        JSValue result = new JSValue();
+        result.mSourceOffset = offset;
+        result.mSource = source;
+        return result;
+    }
+
+    Type type() {
+        if (mSource != null) {
+            materialize();
+        }
+        return mType;
+    }
+
+    /**
+     * Returns the value boxed up, ie: numbers as Integer, Long or Double.  Allocates for numbers,
+     * the typed accessors don't.
+     */
+    Object value() {
+        switch (type()) {
+            case BOOLEAN:
+                return mPrimitive != 0;
+            case INTEGER:
+                return (int)mPrimitive;
+            case LONG:
+                return mPrimitive;
+            case DOUBLE:
+                return Double.longBitsToDouble(mPrimitive);
+            default:
+                return mValue;
+        }
+    }
+
+    // only used while a value is being built, before anyone else can see it.
+    void setNull() {
+        mType = Type.NULL;
+        mValue = null;
+    }
+
+    void setBoolean(boolean value) {
+        mType = Type.BOOLEAN;
+        mPrimitive = value ? 1 : 0;
+    }
+
+    void setInt(int value) {
+        mType = Type.INTEGER;
+        mPrimitive = value;
+    }
+
+    void setLong(long value) {
+        mType = Type.LONG;
+        mPrimitive = value;
+    }
+
+    void setDouble(double value) {
+        mType = Type.DOUBLE;
+        mPrimitive = Double.doubleToRawLongBits(value);
+    }
+
+    void setReference(Type type, Object value) {
+        mType = type;
+        mValue = value;
+    }
+
+    /**
+     * Sets the value from a boxed or otherwise plain java object, like the ones org.json hands
+     * back.
+     */
+    void setRawValue(Object value) {
+        if (value == null || value.equals(JSONObject.NULL)) {
+            setNull();
+        } else if (value instanceof Boolean) {
+            setBoolean((Boolean)value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            setInt(((Number)value).intValue());
+        } else if (value instanceof Long) {
+            setLong((Long)value);
+        } else if (value instanceof Number) {
+            setDouble(((Number)value).doubleValue());
+        } else if (value instanceof String) {
+            String string = (String)value;
+            if (JSFunction.isFunctionString(string)) {
+                setReference(Type.FUNCTION, JSFunction.parse(string));
+            } else {
+                setReference(Type.STRING, string);
+            }
+        } else if (value instanceof JSFunction) {
+            setReference(Type.FUNCTION, value);
+        } else if (value instanceof Map) {
+            setReference(Type.OBJECT, value);
+        } else if (value instanceof List || value instanceof int[] || value instanceof double[]) {
+            setReference(Type.ARRAY, value);
+        } else {
+            setReference(Type.STRING, value.toString());
+        }
+    }
+
+    // two threads asking at once may both build it, either list will do.
+    private List<JSValue> packedList(Object packed) {
+        List<JSValue> result = mPackedList;
+
+        if (result == null) {
+            int length = packedLength(packed);
+            result = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                result.add(packedElement(packed, i));
+            }
+            mPackedList = result;
+        }
+
+        return result;
+    }
+
+    private void copyFrom(JSValue other) {
+        mType = other.type();
+        mValue = other.mValue;
+        mPrimitive = other.mPrimitive;
+    }
+
+    private synchronized void materialize() {
+        if (mSource != null) {
+            try {
+                new JSValueDecoder(mSource, mSourceOffset).readShallowValue(this);
+            } catch (JSONException e) {
+                e.printStackTrace();
+                setNull();
+            }
+            // let go of the source, our children hold on to it as needed.
+            mSource = null;
+        }
+    }
+
+    JSValue member(String key) {
+        return type() == Type.OBJECT ? (JSValue)((Map)mValue).get(key) : null;
+    }
+
+    JSValue element(int index) {
+        JSValue result = null;
+
+        if (type() == Type.ARRAY) {
+            Object value = mValue;
+            if (value instanceof List) {
+                List list = (List)value;
+                result = (index >= 0 && index < list.size()) ? (JSValue)list.get(index) : null;
+            } else if (index >= 0 && index < packedLength(value)) {
+                result = packedElement(value, index);
+            }
+        }
+
+        return result;
+    }
+
+    private static int packedLength(Object packed) {
+        return packed instanceof int[] ? ((int[])packed).length : ((double[])packed).length;
+    }
+
+    private static JSValue packedElement(Object packed, int index) {
+        JSValue result = new JSValue();
+        if (packed instanceof int[]) {
+            result.setInt(((int[])packed)[index]);
+        } else {
+            result.setDouble(((double[])packed)[index]);
+        }
+        return result;
+    }
+
+    private static int parseIndex(String component) {
+        int result = -1;
+
+        if (component.length() > 0 && component.length() < 10) {
+            result = 0;
+            for (int i = 0; i < component.length(); i++) {
+                char c = component.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                result = result * 10 + (c - '0');
+            }
+        }
+
+        return result;
+    }
+
+    /*
+    The arguments are written straight into the script, see JavascriptWriter.writeObject().
+     */
+    private String callString(Object args[]) {
+        return JavascriptWriter.toCall(this, args);
+    }
+
+    protected static JSValue decompose(Object object) {
+        JSValue result;
+
+        if (object instanceof JSONArray) {
+            // turn it into a normal array of JSValue's.
+            JSONArray jsonArray = (JSONArray)object;
+            List<Object> array = new ArrayList<>();
+
+            // old skool iteration, we want to preserve the order.
+            for (int i = 0; i < jsonArray.length(); i++) {
+                try {
+                    Object item = jsonArray.get(i);
+                    array.add(JSValue.decompose(item));
+                } catch (JSONException e) {
+                    // .. do nothing.
+                }
+            }
+            JSValue jsValue = new JSValue();
+            jsValue.setReference(Type.ARRAY, array);
+            result = jsValue;
+
+        } else if (object instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject)object;
+            Map<String, Object> map = new HashMap<>();
+
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                try {
+                    Object value = jsonObject.get(key);
+                    map.put(key, JSValue.decompose(value));
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+            JSValue jsValue = new JSValue();
+            jsValue.setReference(Type.OBJECT, map);
+            result = jsValue;
+
+        } else if (object instanceof JSValue) {
+            result = (JSValue)object;
+        } else {
+            JSValue jsValue = new JSValue();
+            jsValue.setRawValue(object);
+            result = jsValue;
+        }
+
+        return result;
+    }
+}
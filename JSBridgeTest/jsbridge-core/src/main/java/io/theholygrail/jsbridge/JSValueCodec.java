@@ -0,0 +1,24 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+/**
+ * Turns bridge strings into JSValues and JSValues back into javascript, see JSValueCodecs for the
+ * ones that come with the bridge and for picking which one is used.
+ *
+ * Codecs are called from any thread, often several at once, so they need to be thread safe.
+ */
+public interface JSValueCodec {
+    /**
+     * Decodes a bridge string from valueToBridgeString() and returns the value held in its
+     * __rawValue key.  Functions listed under __functions are retained by the page with the
+     * string's __bridgeID, and should be tracked so the page hears when they're released.
+     */
+    JSValue decode(String bridgeString) throws JSONException;
+
+    /**
+     * Appends the value as javascript source, ie: something that can be passed as an argument in
+     * a script.  Functions are written as references into the page's function cache.
+     */
+    void encode(JSValue value, StringBuilder builder);
+}
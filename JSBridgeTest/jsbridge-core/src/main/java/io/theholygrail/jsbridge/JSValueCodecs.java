@@ -0,0 +1,107 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The codecs that come with the bridge, and the one every JSValue in the process goes through.
+ *
+ * STREAMING is the default, a single pass over the string that keeps numbers unboxed and packs
+ * arrays of them, see JSValueDecoder.  ORG_JSON parses with org.json and copies its tree, the way
+ * the bridge used to.  On Android, JsonReaderCodec reads with android.util.JsonReader instead.
+ * Which one is fastest depends on the payloads a page sends, ie: BridgeStats or the benchmarks in
+ * jsbridge-core can tell.
+ *
+ * Whichever is set, lazy values, decode(), unpackArguments() and call results are always read by
+ * JSValueDecoder, since they work from positions in the string.
+ */
+public final class JSValueCodecs {
+    public static final JSValueCodec STREAMING = new JSValueCodec() {
+        @Override
+        public JSValue decode(String bridgeString) throws JSONException {
+            return JSValueDecoder.decodeEnvelope(bridgeString);
+        }
+
+        @Override
+        public void encode(JSValue value, StringBuilder builder) {
+            JavascriptWriter.write(value, builder);
+        }
+    };
+
+    public static final JSValueCodec ORG_JSON = new OrgJsonCodec();
+
+    private static volatile JSValueCodec sCodec = STREAMING;
+
+    private JSValueCodecs() {
+    }
+
+    /**
+     * Sets the codec used to build JSValues from bridge strings and write them back out, or null
+     * for the default.  Values decoded before it's changed are left as they are.
+     */
+    public static void setCodec(JSValueCodec codec) {
+        sCodec = codec != null ? codec : STREAMING;
+    }
+
+    public static JSValueCodec getCodec() {
+        return sCodec;
+    }
+
+    // Protected stuff -----------------------------------------------------------------------------
+
+    /**
+     * Decodes with the current codec.  STREAMING reports to BridgeMetrics itself, the others are
+     * measured here.
+     */
+    static JSValue decode(String bridgeString) throws JSONException {
+        JSValueCodec codec = sCodec;
+        BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+        if (codec == STREAMING || listener == null) {
+            return codec.decode(bridgeString);
+        }
+
+        long startNanos = System.nanoTime();
+        JSValue result = codec.decode(bridgeString);
+        listener.onDecode(bridgeString.length(), System.nanoTime() - startNanos);
+        return result;
+    }
+
+    /**
+     * The functions a bridge string says its page retained, so each reference to one of them
+     * decodes to the same tracked JSFunction, same as JSValueDecoder does.
+     */
+    static final class Functions {
+        private final FunctionTable mTable;
+        private Map<String, JSFunction> mFunctions = null;
+
+        Functions(int bridgeID) {
+            mTable = FunctionTable.forBridgeID(bridgeID);
+        }
+
+        void track(String id) {
+            // with no table to track them, they're plain descriptors like any other.
+            if (mTable != null) {
+                if (mFunctions == null) {
+                    mFunctions = new HashMap<>();
+                }
+                mFunctions.put(id, mTable.track(id));
+            }
+        }
+
+        JSFunction resolve(String string) {
+            JSFunction function = JSFunction.parse(string);
+
+            if (mFunctions != null) {
+                JSFunction tracked = mFunctions.get(function.id());
+                if (tracked != null) {
+                    tracked.setEncodedSource(function.encodedSource());
+                    function = tracked;
+                }
+            }
+
+            return function;
+        }
+    }
+}
@@ -0,0 +1,868 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass decoder for the {"__rawValue": ...} strings produced by valueToBridgeString().
+ *
+ * This walks the string once and builds the final JSValue graph as it goes, rather than
+ * building an org.json tree first and then copying it with JSValue.decompose().  Numbers are
+ * decoded the same way org.json does it (Integer, then Long, then Double) so callers see the
+ * same types either way.
+ *
+ * It can also decode lazily, where containers only record where their children start in the
+ * source string.  Each child is then decoded the first time something asks for it.
+ *
+ * Bridge strings carrying functions also list the IDs the page retained for them, along with the
+ * page's bridge ID.  Those are turned into tracked JSFunctions up front, and every reference to
+ * the same ID within the string decodes to the same JSFunction.
+ *
+ * Arrays holding nothing but numbers are packed into an int[] or double[] rather than a list
+ * of boxed values, see JSValue.intArrayValue() and JSValue.doubleArrayValue().
+ */
+final class JSValueDecoder {
+    static final String RAW_VALUE_KEY = "__rawValue";
+    static final String BRIDGE_ID_KEY = "__bridgeID";
+    static final String FUNCTIONS_KEY = "__functions";
+    static final String ERROR_KEY = "__error";
+
+    // what scanNumber() found, the value itself is left in mLongValue or mDoubleValue.
+    private static final int NUMBER_INT = 0;
+    private static final int NUMBER_LONG = 1;
+    private static final int NUMBER_DOUBLE = 2;
+
+    // every power of ten up to here is exact as a double.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // largest integer a double holds exactly.
+    private static final long MAX_EXACT_DOUBLE_INTEGER = 1L << 53;
+
+    /**
+     * What lazy values need to decode themselves later, shared by every value from one string.
+     */
+    static final class LazySource {
+        final String mText;
+        // function IDs retained for this string, null if there weren't any.
+        final Map<String, JSFunction> mFunctions;
+
+        LazySource(String text, Map<String, JSFunction> functions) {
+            mText = text;
+            mFunctions = functions;
+        }
+    }
+
+    private final String mSource;
+    private final int mLength;
+    private int mPos = 0;
+    private boolean mLazy = false;
+    private StringBuilder mBuffer = null;
+    private long mLongValue = 0;
+    private double mDoubleValue = 0;
+    private Map<String, JSFunction> mFunctions = null;
+    private LazySource mLazySource = null;
+    private JSValue mError = null;
+    // set when the __rawValue goes straight into a Java object instead of a JSValue.
+    private TypeAdapter<?> mValueAdapter = null;
+    private Object mAdaptedValue = null;
+
+    JSValueDecoder(String source) {
+        this(source, 0);
+    }
+
+    JSValueDecoder(LazySource source, int offset) {
+        this(source.mText, offset);
+        mFunctions = source.mFunctions;
+        mLazySource = source;
+    }
+
+    JSValueDecoder(String source, int offset) {
+        mSource = source;
+        mLength = source.length();
+        mPos = offset;
+    }
+
+    /**
+     * Decodes a bridge string and returns the JSValue held in its __rawValue key.
+     */
+    static JSValue decodeEnvelope(String source) throws JSONException {
+        return new JSValueDecoder(source).readEnvelope();
+    }
+
+    /**
+     * Same as decodeEnvelope(), but the value returned only decodes its contents on demand.
+     */
+    static JSValue decodeLazyEnvelope(String source) throws JSONException {
+        JSValueDecoder decoder = new JSValueDecoder(source);
+        decoder.mLazy = true;
+        return decoder.readEnvelope();
+    }
+
+    /**
+     * Decodes the bridge string argumentsToBridgeString() builds for a @PackedArguments method.
+     */
+    static JSValue[] decodeArguments(String source) throws JSONException {
+        JSValue arguments = new JSValueDecoder(source).readEnvelope();
+        if (arguments.type() != JSValue.Type.ARRAY) {
+            throw new JSONException("Arguments should be an array");
+        }
+
+        // a list either way, even if they were all numbers and got packed.
+        List<?> list = arguments.listValue();
+        return list.toArray(new JSValue[list.size()]);
+    }
+
+    /**
+     * Decodes a bridge string straight into whatever the given adapter makes of its __rawValue,
+     * without building JSValues for it.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T decodeEnvelopeAs(String source, TypeAdapter<T> adapter) throws JSONException {
+        JSValueDecoder decoder = new JSValueDecoder(source);
+        decoder.mValueAdapter = adapter;
+        decoder.readEnvelope();
+        return (T)decoder.mAdaptedValue;
+    }
+
+    /**
+     * Decodes the arguments a dispatch stub packs into an array, each with its parameter's
+     * adapter.  Missing arguments come back null.
+     */
+    static Object[] decodeArgumentsAs(String source, TypeAdapter<?>[] adapters) throws JSONException {
+        return decodeEnvelopeAs(source, TypeAdapters.arguments(adapters));
+    }
+
+    /**
+     * Decodes a single JSON string literal, like the ones evaluateJavascript() hands back.
+     * Returns null if the literal is anything other than a string.
+     */
+    static String decodeStringLiteral(String literal) {
+        String result = null;
+
+        if (literal != null && literal.length() > 1 && literal.charAt(0) == '"') {
+            try {
+                result = new JSValueDecoder(literal).readString();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes the bridge string __bridgeCall() sends back, which holds either the call's value
+     * or the exception it threw.
+     */
+    static JSValue decodeCallResult(String source) throws JSONException, JSException {
+        JSValueDecoder decoder = new JSValueDecoder(source);
+        JSValue result = decoder.readEnvelope(true);
+
+        if (decoder.mError != null) {
+            JSValue error = decoder.mError;
+            throw new JSException(error.getString("message", "Javascript error"), error.getString("stack", null));
+        }
+
+        return result;
+    }
+
+    JSValue readEnvelope() throws JSONException {
+        return readEnvelope(false);
+    }
+
+    private JSValue readEnvelope(boolean allowsError) throws JSONException {
+        BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+        if (listener == null) {
+            return readEnvelopeValue(allowsError);
+        }
+
+        int start = mPos;
+        long startNanos = System.nanoTime();
+        JSValue result = readEnvelopeValue(allowsError);
+        listener.onDecode(mPos - start, System.nanoTime() - startNanos);
+        return result;
+    }
+
+    private JSValue readEnvelopeValue(boolean allowsError) throws JSONException {
+        JSValue result = null;
+        boolean adapted = false;
+        int bridgeID = 0;
+
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() != '}') {
+            do {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                // the page writes these ahead of the value so they're known before it's decoded.
+                if (BRIDGE_ID_KEY.equals(key)) {
+                    skipWhitespace();
+                    scanNumber();
+                    bridgeID = (int)mLongValue;
+                } else if (FUNCTIONS_KEY.equals(key)) {
+                    readFunctionIDs(FunctionTable.forBridgeID(bridgeID));
+                } else if (RAW_VALUE_KEY.equals(key) && mValueAdapter != null) {
+                    mAdaptedValue = mValueAdapter.read(this);
+                    adapted = true;
+                } else if (RAW_VALUE_KEY.equals(key)) {
+                    result = readValue();
+                } else if (allowsError && ERROR_KEY.equals(key)) {
+                    mError = readValue();
+                } else {
+                    skipValue();
+                }
+                skipWhitespace();
+            } while (consume(','));
+        }
+        expect('}');
+
+        if (result == null && mError == null && !adapted) {
+            throw syntaxError("No value for " + RAW_VALUE_KEY);
+        }
+
+        return result;
+    }
+
+    JSValue readValue() throws JSONException {
+        if (mLazy) {
+            skipWhitespace();
+            if (mLazySource == null) {
+                mLazySource = new LazySource(mSource, mFunctions);
+            }
+            JSValue result = JSValue.lazy(mLazySource, mPos);
+            skipValue();
+            return result;
+        }
+
+        JSValue result = new JSValue();
+        readInto(result);
+        return result;
+    }
+
+    /**
+     * Decodes the value at the current position into the given value, leaving any children
+     * undecoded.
+     */
+    void readShallowValue(JSValue target) throws JSONException {
+        mLazy = true;
+        readInto(target);
+    }
+
+    // Reading for TypeAdapters --------------------------------------------------------------------
+
+    /**
+     * Returns the first character of the next value, so adapters can tell what kind it is.
+     */
+    char peekToken() throws JSONException {
+        skipWhitespace();
+        return peek();
+    }
+
+    static boolean isNumberStart(char c) {
+        return c == '-' || (c >= '0' && c <= '9');
+    }
+
+    String nextString() throws JSONException {
+        skipWhitespace();
+        if (peek() != '"') {
+            throw syntaxError("Expected a string");
+        }
+        return readString();
+    }
+
+    long nextLong() throws JSONException {
+        return scanExpectedNumber() == NUMBER_DOUBLE ? (long)mDoubleValue : mLongValue;
+    }
+
+    double nextDouble() throws JSONException {
+        return scanExpectedNumber() == NUMBER_DOUBLE ? mDoubleValue : mLongValue;
+    }
+
+    boolean nextBoolean() throws JSONException {
+        skipWhitespace();
+        if (peek() == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        expectLiteral("false");
+        return false;
+    }
+
+    /**
+     * Starts reading an object.  Returns false if it's empty, in which case it's been read.
+     */
+    boolean beginObject() throws JSONException {
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        return !consume('}');
+    }
+
+    /**
+     * Reads the name of the next member, leaving its value to be read.
+     */
+    String nextName() throws JSONException {
+        skipWhitespace();
+        String name = readString();
+        skipWhitespace();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Reads the name of the next member and returns where it is in names, or -1 if it isn't
+     * there.  Names are compared where they sit in the source rather than cut out of it first.
+     * Members tend to come in the same order each time, so names are tried from hint onwards.
+     */
+    int nextNameIndex(String[] names, int hint) throws JSONException {
+        int result = -1;
+
+        skipWhitespace();
+        expect('"');
+        int start = mPos;
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos);
+            if (c == '"') {
+                break;
+            } else if (c == '\\') {
+                // escaped names are rare enough to do the slow way.
+                mPos = start - 1;
+                String name = readString();
+                for (int i = 0; i < names.length && result < 0; i++) {
+                    result = names[i].equals(name) ? i : -1;
+                }
+                skipWhitespace();
+                expect(':');
+                return result;
+            }
+            mPos++;
+        }
+        int length = mPos - start;
+        expect('"');
+
+        int count = names.length;
+        int index = hint < count ? hint : 0;
+        for (int i = 0; i < count; i++) {
+            String name = names[index];
+            if (name.length() == length && mSource.regionMatches(start, name, 0, length)) {
+                result = index;
+                break;
+            }
+            index = index + 1 < count ? index + 1 : 0;
+        }
+
+        skipWhitespace();
+        expect(':');
+        return result;
+    }
+
+    /**
+     * Called after each member's value.  Returns true if there's another, otherwise finishes the
+     * object.
+     */
+    boolean nextMember() throws JSONException {
+        skipWhitespace();
+        if (consume(',')) {
+            return true;
+        }
+        expect('}');
+        return false;
+    }
+
+    /**
+     * Starts reading an array.  Returns false if it's empty, in which case it's been read.
+     */
+    boolean beginArray() throws JSONException {
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        return !consume(']');
+    }
+
+    /**
+     * Called after each element.  Returns true if there's another, otherwise finishes the array.
+     */
+    boolean nextElement() throws JSONException {
+        skipWhitespace();
+        if (consume(',')) {
+            return true;
+        }
+        expect(']');
+        return false;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private int scanExpectedNumber() throws JSONException {
+        if (!isNumberStart(peekToken())) {
+            throw syntaxError("Expected a number");
+        }
+        return scanNumber();
+    }
+
+    private void readInto(JSValue target) throws JSONException {
+        skipWhitespace();
+
+        char c = peek();
+        switch (c) {
+            case '{':
+                target.setReference(JSValue.Type.OBJECT, readObject());
+                break;
+            case '[':
+                target.setReference(JSValue.Type.ARRAY, readArray());
+                break;
+            case '"':
+                String string = readString();
+                // functions are parsed up front so nobody has to pick the string apart later.
+                if (JSFunction.isFunctionString(string)) {
+                    target.setReference(JSValue.Type.FUNCTION, resolveFunction(string));
+                } else {
+                    target.setReference(JSValue.Type.STRING, string);
+                }
+                break;
+            case 't':
+                expectLiteral("true");
+                target.setBoolean(true);
+                break;
+            case 'f':
+                expectLiteral("false");
+                target.setBoolean(false);
+                break;
+            case 'n':
+                expectLiteral("null");
+                target.setNull();
+                break;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw syntaxError("Unexpected character '" + c + "'");
+                }
+                switch (scanNumber()) {
+                    case NUMBER_INT:
+                        target.setInt((int)mLongValue);
+                        break;
+                    case NUMBER_LONG:
+                        target.setLong(mLongValue);
+                        break;
+                    default:
+                        target.setDouble(mDoubleValue);
+                        break;
+                }
+        }
+    }
+
+    private JSFunction resolveFunction(String string) {
+        JSFunction function = JSFunction.parse(string);
+
+        if (mFunctions != null) {
+            JSFunction tracked = mFunctions.get(function.id());
+            if (tracked != null) {
+                tracked.setEncodedSource(function.encodedSource());
+                function = tracked;
+            }
+        }
+
+        return function;
+    }
+
+    private void readFunctionIDs(FunctionTable table) throws JSONException {
+        skipWhitespace();
+        expect('[');
+        skipWhitespace();
+        if (peek() != ']') {
+            if (mFunctions == null) {
+                mFunctions = new HashMap<>();
+            }
+            do {
+                skipWhitespace();
+                scanNumber();
+                String id = Long.toString(mLongValue);
+                // with no table to track them, they're plain descriptors like any other.
+                if (table != null) {
+                    mFunctions.put(id, table.track(id));
+                }
+                skipWhitespace();
+            } while (consume(','));
+        }
+        expect(']');
+    }
+
+    private Map<String, Object> readObject() throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+
+        expect('{');
+        skipWhitespace();
+        if (peek() != '}') {
+            do {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                map.put(key, readValue());
+                skipWhitespace();
+            } while (consume(','));
+        }
+        expect('}');
+
+        return map;
+    }
+
+    private Object readArray() throws JSONException {
+        expect('[');
+        skipWhitespace();
+
+        char c = peek();
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            Object packed = readPackedNumbers();
+            if (packed != null) {
+                return packed;
+            }
+        }
+
+        List<Object> array = new ArrayList<>();
+        if (peek() != ']') {
+            do {
+                array.add(readValue());
+                skipWhitespace();
+            } while (consume(','));
+        }
+        expect(']');
+
+        return array;
+    }
+
+    /*
+    Reads the rest of an array into an int[], or a double[] once something that isn't an int
+    shows up.  If anything other than a number turns up, or a long that a double can't hold, this
+    rewinds to the first element and returns null so it's read as a normal list instead.
+     */
+    private Object readPackedNumbers() throws JSONException {
+        int start = mPos;
+        int[] ints = new int[16];
+        double[] doubles = null;
+        int count = 0;
+
+        do {
+            skipWhitespace();
+            char c = mPos < mLength ? mSource.charAt(mPos) : 0;
+            if (c != '-' && (c < '0' || c > '9')) {
+                mPos = start;
+                return null;
+            }
+
+            int kind = scanNumber();
+            if (kind == NUMBER_LONG) {
+                if (Math.abs(mLongValue) > MAX_EXACT_DOUBLE_INTEGER) {
+                    mPos = start;
+                    return null;
+                }
+                mDoubleValue = mLongValue;
+                kind = NUMBER_DOUBLE;
+            }
+
+            if (doubles == null && kind == NUMBER_DOUBLE) {
+                // promote everything so far.
+                doubles = new double[ints.length];
+                for (int i = 0; i < count; i++) {
+                    doubles[i] = ints[i];
+                }
+                ints = null;
+            }
+
+            if (doubles != null) {
+                if (count == doubles.length) {
+                    doubles = Arrays.copyOf(doubles, count * 2);
+                }
+                doubles[count++] = kind == NUMBER_INT ? mLongValue : mDoubleValue;
+            } else {
+                if (count == ints.length) {
+                    ints = Arrays.copyOf(ints, count * 2);
+                }
+                ints[count++] = (int)mLongValue;
+            }
+
+            skipWhitespace();
+        } while (consume(','));
+
+        if (peek() != ']') {
+            mPos = start;
+            return null;
+        }
+        mPos++;
+
+        if (doubles != null) {
+            return count == doubles.length ? doubles : Arrays.copyOf(doubles, count);
+        } else {
+            return count == ints.length ? ints : Arrays.copyOf(ints, count);
+        }
+    }
+
+    private String readString() throws JSONException {
+        expect('"');
+
+        // fast path, no escapes means we can just cut it out of the source.
+        int start = mPos;
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos);
+            if (c == '"') {
+                String result = mSource.substring(start, mPos);
+                mPos++;
+                return result;
+            } else if (c == '\\') {
+                break;
+            }
+            mPos++;
+        }
+
+        if (mBuffer == null) {
+            mBuffer = new StringBuilder();
+        }
+        StringBuilder buffer = mBuffer;
+        buffer.setLength(0);
+        buffer.append(mSource, start, mPos);
+
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos++);
+            if (c == '"') {
+                return buffer.toString();
+            } else if (c == '\\') {
+                buffer.append(readEscapeCharacter());
+            } else {
+                buffer.append(c);
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private char readEscapeCharacter() throws JSONException {
+        if (mPos >= mLength) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+
+        char c = mSource.charAt(mPos++);
+        switch (c) {
+            case 'u':
+                if (mPos + 4 > mLength) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(mSource.charAt(mPos++), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char)result;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            default:
+                // covers \" \\ \/ and anything else that is escaped for no good reason.
+                return c;
+        }
+    }
+
+    /*
+    Reads a number into mLongValue or mDoubleValue and says which.  Same rules as org.json, ints
+    if they fit, longs if they don't, then doubles.  The common cases are worked out as the digits
+    go by without a substring, anything else is handed to Long and Double to parse.
+     */
+    private int scanNumber() throws JSONException {
+        int start = mPos;
+        boolean isIntegral = true;
+
+        boolean negative = consume('-');
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (digits < 19) {
+                mantissa = mantissa * 10 + (c - '0');
+            }
+            digits++;
+            mPos++;
+        }
+        int integerDigits = digits;
+
+        if (consume('.')) {
+            isIntegral = false;
+            while (mPos < mLength) {
+                char c = mSource.charAt(mPos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (digits < 19) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                }
+                digits++;
+                mPos++;
+            }
+        }
+
+        if (mPos < mLength && (mSource.charAt(mPos) == 'e' || mSource.charAt(mPos) == 'E')) {
+            isIntegral = false;
+            mPos++;
+            boolean negativeExponent = consume('-');
+            if (!negativeExponent) {
+                consume('+');
+            }
+            int exponentValue = 0;
+            while (mPos < mLength) {
+                char c = mSource.charAt(mPos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (exponentValue < 10000) {
+                    exponentValue = exponentValue * 10 + (c - '0');
+                }
+                mPos++;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+
+        if (isIntegral && digits > 0 && digits < 19) {
+            mLongValue = negative ? -mantissa : mantissa;
+            return (mLongValue <= Integer.MAX_VALUE && mLongValue >= Integer.MIN_VALUE) ? NUMBER_INT : NUMBER_LONG;
+        }
+
+        // up to 15 digits and a small exponent are exact as doubles, so one multiply or divide
+        // gives the correctly rounded result.
+        if (!isIntegral && integerDigits > 0 && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            mDoubleValue = negative ? -value : value;
+            return NUMBER_DOUBLE;
+        }
+
+        String literal = mSource.substring(start, mPos);
+
+        try {
+            if (isIntegral) {
+                mLongValue = Long.parseLong(literal);
+                return NUMBER_LONG;
+            }
+        } catch (NumberFormatException e) {
+            // too big for a long, fall through to double.
+        }
+
+        try {
+            mDoubleValue = Double.parseDouble(literal);
+            return NUMBER_DOUBLE;
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number " + literal);
+        }
+    }
+
+    void skipValue() throws JSONException {
+        skipWhitespace();
+
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            // we only need to balance brackets here, strings are the only thing that can fool us.
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                mPos++;
+            } while (depth > 0);
+        } else if (c == 't') {
+            expectLiteral("true");
+        } else if (c == 'f') {
+            expectLiteral("false");
+        } else if (c == 'n') {
+            expectLiteral("null");
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            scanNumber();
+        } else {
+            throw syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    private void skipString() throws JSONException {
+        expect('"');
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos++);
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                mPos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void expectLiteral(String literal) throws JSONException {
+        if (!mSource.startsWith(literal, mPos)) {
+            throw syntaxError("Expected " + literal);
+        }
+        mPos += literal.length();
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mLength) {
+            char c = mSource.charAt(mPos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            mPos++;
+        }
+    }
+
+    private char peek() throws JSONException {
+        if (mPos >= mLength) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mSource.charAt(mPos);
+    }
+
+    private boolean consume(char c) {
+        if (mPos < mLength && mSource.charAt(mPos) == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws JSONException {
+        if (peek() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        mPos++;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + mPos);
+    }
+}
@@ -0,0 +1,635 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes JSValues out as javascript source in a single pass.
+ *
+ * Everything goes into one StringBuilder, with strings escaped so they survive being embedded in
+ * a script: quotes, backslashes, control characters and the two line terminators javascript
+ * doesn't allow in string literals.
+ *
+ * Java values passed to callFunction() are written the same way, each class by a ClassWriter
+ * worked out the first time it's seen.
+ */
+final class JavascriptWriter {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // builders bigger than this aren't worth hanging on to between calls.
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private static final ConcurrentHashMap<Class<?>, ClassWriter> sClassWriters = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<StringBuilder> sBuilders = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private JavascriptWriter() {
+    }
+
+    /**
+     * Returns the javascript the codec writes for the given value, built in a buffer reused
+     * across calls on the same thread.
+     */
+    static String toJavascript(JSValue value, JSValueCodec codec) {
+        StringBuilder builder = sBuilders.get();
+        builder.setLength(0);
+
+        codec.encode(value, builder);
+        String result = builder.toString();
+
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            sBuilders.remove();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the javascript calling the given function with the given Java arguments, see
+     * writeObject().
+     */
+    static String toCall(JSValue function, Object[] args) {
+        StringBuilder builder = sBuilders.get();
+        builder.setLength(0);
+
+        write(function, builder);
+        builder.append(".apply(null, [");
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                writeObject(args[i], builder);
+            }
+        }
+        builder.append("])");
+        String result = builder.toString();
+
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            sBuilders.remove();
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes a Java value: Strings, numbers, booleans, enums by name, JSValues, Maps (keys as
+     * strings), Collections, arrays, JSONObjects and JSONArrays.  Any other class is written as
+     * an object of its fields, the same ones TypeAdapters would decode into, apart from classes
+     * from the platform which are written as their toString().  Values mustn't refer back to
+     * themselves.
+     */
+    static void writeObject(Object value, StringBuilder out) {
+        if (value == null || value == JSONObject.NULL) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString((String)value, out);
+        } else {
+            classWriter(value.getClass()).write(value, out);
+        }
+    }
+
+    static void write(JSValue value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else {
+            // numbers and booleans straight from their primitives, no boxing.
+            switch (value.type()) {
+                case BOOLEAN:
+                    out.append(value.booleanValue(false));
+                    break;
+                case INTEGER:
+                    out.append(value.intValue(0));
+                    break;
+                case LONG:
+                    out.append(value.longValue(0));
+                    break;
+                case DOUBLE:
+                    out.append(value.doubleValue(0));
+                    break;
+                default:
+                    writeRawValue(value.mValue, out);
+                    break;
+            }
+        }
+    }
+
+    static void writeString(String string, StringBuilder out) {
+        out.append('"');
+
+        int length = string.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            String replacement;
+
+            if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                default:
+                    replacement = null;
+                    break;
+            }
+
+            // copy everything up to here in one go, then the escaped character.
+            out.append(string, start, i);
+            if (replacement != null) {
+                out.append(replacement);
+            } else {
+                out.append("\\u")
+                        .append(HEX_DIGITS[(c >> 12) & 0xf])
+                        .append(HEX_DIGITS[(c >> 8) & 0xf])
+                        .append(HEX_DIGITS[(c >> 4) & 0xf])
+                        .append(HEX_DIGITS[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        out.append(string, start, length);
+
+        out.append('"');
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static void writeRawValue(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof JSValue) {
+            write((JSValue)value, out);
+        } else if (value instanceof String) {
+            writeString((String)value, out);
+        } else if (value instanceof JSFunction) {
+            out.append("__functionCache[").append(((JSFunction)value).id()).append(']');
+        } else if (value instanceof Map) {
+            writeMap((Map)value, out);
+        } else if (value instanceof List) {
+            writeList((List)value, out);
+        } else if (value instanceof int[]) {
+            writeIntArray((int[])value, out);
+        } else if (value instanceof double[]) {
+            writeDoubleArray((double[])value, out);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value.toString());
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    private static void writeMap(Map map, StringBuilder out) {
+        out.append('{');
+
+        boolean first = true;
+        Iterator iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+
+            writeString(String.valueOf(entry.getKey()), out);
+            out.append(':');
+            writeRawValue(entry.getValue(), out);
+        }
+
+        out.append('}');
+    }
+
+    private static void writeList(List list, StringBuilder out) {
+        out.append('[');
+
+        // old skool iteration, these are almost always ArrayLists.
+        int size = list.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            writeRawValue(list.get(i), out);
+        }
+
+        out.append(']');
+    }
+
+    // packed arrays are appended straight from the primitives, nothing gets boxed.
+    private static void writeIntArray(int[] array, StringBuilder out) {
+        out.append('[');
+        for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(array[i]);
+        }
+        out.append(']');
+    }
+
+    private static void writeDoubleArray(double[] array, StringBuilder out) {
+        out.append('[');
+        for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(array[i]);
+        }
+        out.append(']');
+    }
+
+    // Writing Java values -------------------------------------------------------------------------
+
+    private abstract static class ClassWriter {
+        abstract void write(Object value, StringBuilder out);
+    }
+
+    private static ClassWriter classWriter(Class<?> cls) {
+        ClassWriter result = sClassWriters.get(cls);
+
+        if (result == null) {
+            result = createClassWriter(cls);
+
+            ClassWriter existing = sClassWriters.putIfAbsent(cls, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    private static ClassWriter createClassWriter(Class<?> cls) {
+        if (cls == Integer.class || cls == Short.class || cls == Byte.class) {
+            return INTEGER;
+        } else if (cls == Long.class) {
+            return LONG;
+        } else if (cls == Double.class) {
+            return DOUBLE;
+        } else if (cls == Float.class) {
+            return FLOAT;
+        } else if (Number.class.isAssignableFrom(cls) || cls == Boolean.class) {
+            return TO_STRING;
+        } else if (CharSequence.class.isAssignableFrom(cls) || cls == Character.class) {
+            return STRING;
+        } else if (Enum.class.isAssignableFrom(cls)) {
+            return ENUM;
+        } else if (cls == JSValue.class) {
+            return VALUE;
+        } else if (cls == JSFunction.class) {
+            return FUNCTION;
+        } else if (cls == JSONObject.class) {
+            return JSON_OBJECT;
+        } else if (cls == JSONArray.class) {
+            return JSON_ARRAY;
+        } else if (Map.class.isAssignableFrom(cls)) {
+            return MAP;
+        } else if (List.class.isAssignableFrom(cls)) {
+            return LIST;
+        } else if (Iterable.class.isAssignableFrom(cls)) {
+            return ITERABLE;
+        } else if (cls == int[].class) {
+            return INT_ARRAY;
+        } else if (cls == long[].class) {
+            return LONG_ARRAY;
+        } else if (cls == double[].class) {
+            return DOUBLE_ARRAY;
+        } else if (cls == boolean[].class) {
+            return BOOLEAN_ARRAY;
+        } else if (cls.isArray()) {
+            return cls.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : OBJECT_ARRAY;
+        }
+
+        String name = cls.getName();
+        if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("android.")) {
+            return STRING;
+        }
+        return new FieldsWriter(cls);
+    }
+
+    private static final ClassWriter INTEGER = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append(((Number)value).intValue());
+        }
+    };
+
+    private static final ClassWriter LONG = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append(((Long)value).longValue());
+        }
+    };
+
+    // NaN and Infinity come out as their javascript names.
+    private static final ClassWriter DOUBLE = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append(((Double)value).doubleValue());
+        }
+    };
+
+    // appended as a float, so 0.1f stays 0.1.
+    private static final ClassWriter FLOAT = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append(((Float)value).floatValue());
+        }
+    };
+
+    private static final ClassWriter TO_STRING = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append(value.toString());
+        }
+    };
+
+    private static final ClassWriter STRING = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            writeString(value.toString(), out);
+        }
+    };
+
+    private static final ClassWriter ENUM = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            writeString(((Enum<?>)value).name(), out);
+        }
+    };
+
+    private static final ClassWriter VALUE = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            // JSValues passed as arguments are written the same way javascriptStringValue() does.
+            JSValueCodecs.getCodec().encode((JSValue)value, out);
+        }
+    };
+
+    private static final ClassWriter FUNCTION = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append("__functionCache[").append(((JSFunction)value).id()).append(']');
+        }
+    };
+
+    private static final ClassWriter JSON_OBJECT = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            JSONObject object = (JSONObject)value;
+            out.append('{');
+
+            boolean first = true;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+
+                writeString(key, out);
+                out.append(':');
+                writeObject(object.opt(key), out);
+            }
+
+            out.append('}');
+        }
+    };
+
+    private static final ClassWriter JSON_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            JSONArray array = (JSONArray)value;
+            out.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeObject(array.opt(i), out);
+            }
+            out.append(']');
+        }
+    };
+
+    private static final ClassWriter MAP = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append('{');
+
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+
+                writeString(String.valueOf(entry.getKey()), out);
+                out.append(':');
+                writeObject(entry.getValue(), out);
+            }
+
+            out.append('}');
+        }
+    };
+
+    private static final ClassWriter LIST = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            List<?> list = (List<?>)value;
+            out.append('[');
+
+            // old skool iteration, these are almost always ArrayLists.
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeObject(list.get(i), out);
+            }
+
+            out.append(']');
+        }
+    };
+
+    private static final ClassWriter ITERABLE = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append('[');
+
+            boolean first = true;
+            for (Object item : (Iterable<?>)value) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeObject(item, out);
+            }
+
+            out.append(']');
+        }
+    };
+
+    private static final ClassWriter INT_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            writeIntArray((int[])value, out);
+        }
+    };
+
+    private static final ClassWriter LONG_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            long[] array = (long[])value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(array[i]);
+            }
+            out.append(']');
+        }
+    };
+
+    private static final ClassWriter DOUBLE_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            writeDoubleArray((double[])value, out);
+        }
+    };
+
+    private static final ClassWriter BOOLEAN_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            boolean[] array = (boolean[])value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(array[i]);
+            }
+            out.append(']');
+        }
+    };
+
+    // the rarer primitive arrays, which aren't worth their own writers.
+    private static final ClassWriter PRIMITIVE_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            int length = Array.getLength(value);
+            out.append('[');
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeObject(Array.get(value, i), out);
+            }
+            out.append(']');
+        }
+    };
+
+    private static final ClassWriter OBJECT_ARRAY = new ClassWriter() {
+        @Override
+        void write(Object value, StringBuilder out) {
+            Object[] array = (Object[])value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeObject(array[i], out);
+            }
+            out.append(']');
+        }
+    };
+
+    /*
+    Writes a plain class as an object of its fields.  Member names are escaped once, up front, and
+    primitive fields are appended without boxing.
+     */
+    private static final class FieldsWriter extends ClassWriter {
+        private final Field[] mFields;
+        private final Class<?>[] mTypes;
+        // ie: "name": for each field, the first one without a leading comma.
+        private final String[] mPrefixes;
+
+        FieldsWriter(Class<?> cls) {
+            List<Field> fields = TypeAdapters.mappedFields(cls);
+            mFields = fields.toArray(new Field[fields.size()]);
+            mTypes = new Class<?>[mFields.length];
+            mPrefixes = new String[mFields.length];
+
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < mFields.length; i++) {
+                mTypes[i] = mFields[i].getType();
+
+                builder.setLength(0);
+                if (i > 0) {
+                    builder.append(',');
+                }
+                writeString(mFields[i].getName(), builder);
+                builder.append(':');
+                mPrefixes[i] = builder.toString();
+            }
+        }
+
+        @Override
+        void write(Object value, StringBuilder out) {
+            out.append('{');
+
+            try {
+                for (int i = 0; i < mFields.length; i++) {
+                    Field field = mFields[i];
+                    Class<?> type = mTypes[i];
+                    out.append(mPrefixes[i]);
+
+                    if (!type.isPrimitive()) {
+                        writeObject(field.get(value), out);
+                    } else if (type == int.class || type == short.class || type == byte.class) {
+                        out.append(field.getInt(value));
+                    } else if (type == long.class) {
+                        out.append(field.getLong(value));
+                    } else if (type == double.class) {
+                        out.append(field.getDouble(value));
+                    } else if (type == float.class) {
+                        out.append(field.getFloat(value));
+                    } else if (type == boolean.class) {
+                        out.append(field.getBoolean(value));
+                    } else {
+                        writeString(String.valueOf(field.getChar(value)), out);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+
+            out.append('}');
+        }
+    }
+}
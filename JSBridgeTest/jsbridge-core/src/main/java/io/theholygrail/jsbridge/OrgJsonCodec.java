@@ -0,0 +1,74 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes bridge strings by parsing them into an org.json tree and copying that into JSValues,
+ * the way the bridge did before JSValueDecoder.  Every number is boxed on the way through and
+ * arrays are always lists.  Values are written out by JavascriptWriter, same as STREAMING, since
+ * org.json's strings aren't safe to embed in a script.
+ */
+final class OrgJsonCodec implements JSValueCodec {
+    @Override
+    public JSValue decode(String bridgeString) throws JSONException {
+        JSONObject envelope = new JSONObject(bridgeString);
+        if (!envelope.has(JSValueDecoder.RAW_VALUE_KEY)) {
+            throw new JSONException("No value for " + JSValueDecoder.RAW_VALUE_KEY);
+        }
+
+        JSValueCodecs.Functions functions = null;
+        JSONArray ids = envelope.optJSONArray(JSValueDecoder.FUNCTIONS_KEY);
+        if (ids != null) {
+            functions = new JSValueCodecs.Functions(envelope.optInt(JSValueDecoder.BRIDGE_ID_KEY));
+            for (int i = 0; i < ids.length(); i++) {
+                functions.track(Long.toString(ids.getLong(i)));
+            }
+        }
+
+        return convert(envelope.get(JSValueDecoder.RAW_VALUE_KEY), functions);
+    }
+
+    @Override
+    public void encode(JSValue value, StringBuilder builder) {
+        JavascriptWriter.write(value, builder);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static JSValue convert(Object object, JSValueCodecs.Functions functions) throws JSONException {
+        JSValue result = new JSValue();
+
+        if (object instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray)object;
+            List<Object> list = new ArrayList<>(jsonArray.length());
+            for (int i = 0; i < jsonArray.length(); i++) {
+                list.add(convert(jsonArray.get(i), functions));
+            }
+            result.setReference(JSValue.Type.ARRAY, list);
+        } else if (object instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject)object;
+            Map<String, Object> map = new HashMap<>();
+
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                map.put(key, convert(jsonObject.get(key), functions));
+            }
+            result.setReference(JSValue.Type.OBJECT, map);
+        } else if (functions != null && object instanceof String && JSFunction.isFunctionString((String)object)) {
+            result.setReference(JSValue.Type.FUNCTION, functions.resolve((String)object));
+        } else {
+            result.setRawValue(object);
+        }
+
+        return result;
+    }
+}
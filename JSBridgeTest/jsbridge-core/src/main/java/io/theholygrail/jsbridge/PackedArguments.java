@@ -0,0 +1,28 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an exported method as taking all of its javascript arguments packed into one bridge
+ * string.
+ *
+ * The method takes a single String, and however many arguments javascript passes arrive in it
+ * together, encoded once and decoded in one pass with JSValue.unpackArguments().  Handy for
+ * methods that take several arguments, rather than encoding and decoding each one separately.
+ *
+ * ie:
+ *
+ *     @JavascriptInterface
+ *     @PackedArguments
+ *     public void updateRecords(String arguments) {
+ *         JSValue[] args = JSValue.unpackArguments(arguments);
+ *         ...
+ *     }
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PackedArguments {
+}
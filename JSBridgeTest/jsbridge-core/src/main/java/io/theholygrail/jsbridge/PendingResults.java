@@ -0,0 +1,35 @@
+package io.theholygrail.jsbridge;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Table of calls into javascript that are waiting on a result, keyed by a per-call ID.
+ *
+ * The ID goes out with the injected script and comes back with the result, so any number of
+ * calls can be in flight at once and a result that never arrives only affects its own call.
+ */
+final class PendingResults<T> {
+    private final AtomicInteger mNextCallID = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, T> mPending = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a callback and returns the ID its result should be passed back with.
+     */
+    int add(T callback) {
+        int callID = mNextCallID.incrementAndGet();
+        mPending.put(callID, callback);
+        return callID;
+    }
+
+    /**
+     * Removes and returns the callback for the given ID, or null if there isn't one.
+     */
+    T remove(int callID) {
+        return mPending.remove(callID);
+    }
+
+    int size() {
+        return mPending.size();
+    }
+}
@@ -0,0 +1,21 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+/**
+ * Turns javascript values into one Java type, see TypeAdapters.
+ *
+ * Values of the wrong kind, ie: a string where a number was expected, or null, come back as
+ * null either way.
+ */
+abstract class TypeAdapter<T> {
+    /**
+     * Reads the value at the decoder's position straight out of the bridge string.
+     */
+    abstract T read(JSValueDecoder decoder) throws JSONException;
+
+    /**
+     * Converts a value that has already been decoded.
+     */
+    abstract T convert(JSValue value);
+}
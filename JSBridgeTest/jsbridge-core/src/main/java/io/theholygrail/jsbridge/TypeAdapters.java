@@ -0,0 +1,637 @@
+package io.theholygrail.jsbridge;
+
+import org.json.JSONException;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds and caches the TypeAdapter for Java types decoded from javascript.
+ *
+ * Handles Strings, numbers and booleans (boxed or not), enums by name, JSValue, arrays, Lists
+ * and Maps with String keys, and plain classes with a no argument constructor.  A class's
+ * fields are matched to members by name.  Finding those fields and their adapters happens once
+ * per class, after that each member is set straight from the bridge string as it's read.
+ */
+final class TypeAdapters {
+    private static final ConcurrentHashMap<Type, TypeAdapter<?>> sAdapters = new ConcurrentHashMap<>();
+
+    private TypeAdapters() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> TypeAdapter<T> forClass(Class<T> cls) {
+        return (TypeAdapter<T>)forType(cls);
+    }
+
+    /**
+     * Returns the adapter for the given type, making it the first time it's asked for.  Throws
+     * IllegalArgumentException for types that can't be decoded into.
+     */
+    static TypeAdapter<?> forType(Type type) {
+        TypeAdapter<?> result = sAdapters.get(type);
+
+        if (result == null) {
+            result = create(type);
+
+            TypeAdapter<?> existing = sAdapters.putIfAbsent(type, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns an adapter for an array of arguments, each read with its own adapter.
+     */
+    static TypeAdapter<Object[]> arguments(TypeAdapter<?>[] adapters) {
+        return new ArgumentsAdapter(adapters);
+    }
+
+    /**
+     * Returns the fields of a plain class that map to javascript members, made accessible.
+     * Static, transient and synthetic fields are left out.
+     */
+    static List<Field> mappedFields(Class<?> type) {
+        Map<String, Field> found = new LinkedHashMap<>();
+
+        // subclass fields hide any with the same name further up.
+        for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            for (Field field : cls.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() ||
+                        found.containsKey(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                found.put(field.getName(), field);
+            }
+        }
+
+        return new ArrayList<>(found.values());
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static TypeAdapter<?> create(Type type) {
+        Class<?> cls = rawClass(type);
+
+        if (cls == String.class) {
+            return STRING;
+        } else if (cls == int.class || cls == Integer.class) {
+            return INTEGER;
+        } else if (cls == long.class || cls == Long.class) {
+            return LONG;
+        } else if (cls == double.class || cls == Double.class) {
+            return DOUBLE;
+        } else if (cls == float.class || cls == Float.class) {
+            return FLOAT;
+        } else if (cls == boolean.class || cls == Boolean.class) {
+            return BOOLEAN;
+        } else if (cls == JSValue.class) {
+            return VALUE;
+        } else if (cls == int[].class) {
+            return INT_ARRAY;
+        } else if (cls == double[].class) {
+            return DOUBLE_ARRAY;
+        } else if (cls.isEnum()) {
+            return new EnumAdapter(cls);
+        } else if (cls.isArray()) {
+            Type componentType = type instanceof GenericArrayType ?
+                    ((GenericArrayType)type).getGenericComponentType() : cls.getComponentType();
+            return new ArrayAdapter(rawClass(componentType), forType(componentType));
+        } else if (cls == List.class || cls == Collection.class || cls == ArrayList.class) {
+            return new ListAdapter(forType(typeArgument(type, 0)));
+        } else if (cls == Map.class || cls == HashMap.class) {
+            if (rawClass(typeArgument(type, 0)) != String.class) {
+                throw new IllegalArgumentException("Only Maps with String keys can be decoded into: " + type);
+            }
+            return new MapAdapter(forType(typeArgument(type, 1)));
+        } else if (cls.isPrimitive() || cls.isInterface() || Modifier.isAbstract(cls.getModifiers())) {
+            throw new IllegalArgumentException("Can't decode into " + type);
+        }
+
+        return new ObjectAdapter<>(cls);
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>)type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>)((ParameterizedType)type).getRawType();
+        } else if (type instanceof GenericArrayType) {
+            Class<?> component = rawClass(((GenericArrayType)type).getGenericComponentType());
+            return Array.newInstance(component, 0).getClass();
+        }
+        throw new IllegalArgumentException("Can't decode into " + type);
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (!(type instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("Needs type arguments to be decoded into: " + type);
+        }
+        return ((ParameterizedType)type).getActualTypeArguments()[index];
+    }
+
+    private static boolean isNumber(JSValue value) {
+        JSValue.Type type = value.getType();
+        return type == JSValue.Type.INTEGER || type == JSValue.Type.LONG || type == JSValue.Type.DOUBLE;
+    }
+
+    private static final TypeAdapter<String> STRING = new TypeAdapter<String>() {
+        @Override
+        String read(JSValueDecoder decoder) throws JSONException {
+            if (decoder.peekToken() != '"') {
+                decoder.skipValue();
+                return null;
+            }
+            // functions only go in JSValues, same as convert().
+            String result = decoder.nextString();
+            return JSFunction.isFunctionString(result) ? null : result;
+        }
+
+        @Override
+        String convert(JSValue value) {
+            return value.getType() == JSValue.Type.STRING ? value.stringValue() : null;
+        }
+    };
+
+    private static final TypeAdapter<Integer> INTEGER = new TypeAdapter<Integer>() {
+        @Override
+        Integer read(JSValueDecoder decoder) throws JSONException {
+            if (!JSValueDecoder.isNumberStart(decoder.peekToken())) {
+                decoder.skipValue();
+                return null;
+            }
+            return (int)decoder.nextLong();
+        }
+
+        @Override
+        Integer convert(JSValue value) {
+            return isNumber(value) ? (int)value.longValue(0) : null;
+        }
+    };
+
+    private static final TypeAdapter<Long> LONG = new TypeAdapter<Long>() {
+        @Override
+        Long read(JSValueDecoder decoder) throws JSONException {
+            if (!JSValueDecoder.isNumberStart(decoder.peekToken())) {
+                decoder.skipValue();
+                return null;
+            }
+            return decoder.nextLong();
+        }
+
+        @Override
+        Long convert(JSValue value) {
+            return isNumber(value) ? value.longValue(0) : null;
+        }
+    };
+
+    private static final TypeAdapter<Double> DOUBLE = new TypeAdapter<Double>() {
+        @Override
+        Double read(JSValueDecoder decoder) throws JSONException {
+            if (!JSValueDecoder.isNumberStart(decoder.peekToken())) {
+                decoder.skipValue();
+                return null;
+            }
+            return decoder.nextDouble();
+        }
+
+        @Override
+        Double convert(JSValue value) {
+            return isNumber(value) ? value.doubleValue(0) : null;
+        }
+    };
+
+    private static final TypeAdapter<Float> FLOAT = new TypeAdapter<Float>() {
+        @Override
+        Float read(JSValueDecoder decoder) throws JSONException {
+            if (!JSValueDecoder.isNumberStart(decoder.peekToken())) {
+                decoder.skipValue();
+                return null;
+            }
+            return (float)decoder.nextDouble();
+        }
+
+        @Override
+        Float convert(JSValue value) {
+            return isNumber(value) ? (float)value.doubleValue(0) : null;
+        }
+    };
+
+    private static final TypeAdapter<Boolean> BOOLEAN = new TypeAdapter<Boolean>() {
+        @Override
+        Boolean read(JSValueDecoder decoder) throws JSONException {
+            char c = decoder.peekToken();
+            if (c != 't' && c != 'f') {
+                decoder.skipValue();
+                return null;
+            }
+            return decoder.nextBoolean();
+        }
+
+        @Override
+        Boolean convert(JSValue value) {
+            return value.getType() == JSValue.Type.BOOLEAN ? value.booleanValue(false) : null;
+        }
+    };
+
+    // for members that are kept as they are, ie: functions to call later.
+    private static final TypeAdapter<JSValue> VALUE = new TypeAdapter<JSValue>() {
+        @Override
+        JSValue read(JSValueDecoder decoder) throws JSONException {
+            return decoder.readValue();
+        }
+
+        @Override
+        JSValue convert(JSValue value) {
+            return value;
+        }
+    };
+
+    // these two go through the decoder's packed arrays, which is a single allocation already.
+    private static final TypeAdapter<int[]> INT_ARRAY = new TypeAdapter<int[]>() {
+        @Override
+        int[] read(JSValueDecoder decoder) throws JSONException {
+            return convert(decoder.readValue());
+        }
+
+        @Override
+        int[] convert(JSValue value) {
+            return value.intArrayValue();
+        }
+    };
+
+    private static final TypeAdapter<double[]> DOUBLE_ARRAY = new TypeAdapter<double[]>() {
+        @Override
+        double[] read(JSValueDecoder decoder) throws JSONException {
+            return convert(decoder.readValue());
+        }
+
+        @Override
+        double[] convert(JSValue value) {
+            return value.doubleArrayValue();
+        }
+    };
+
+    private static final class EnumAdapter extends TypeAdapter<Object> {
+        private final Map<String, Object> mConstants = new HashMap<>();
+
+        EnumAdapter(Class<?> cls) {
+            for (Object constant : cls.getEnumConstants()) {
+                mConstants.put(((Enum<?>)constant).name(), constant);
+            }
+        }
+
+        @Override
+        Object read(JSValueDecoder decoder) throws JSONException {
+            String name = STRING.read(decoder);
+            return name != null ? mConstants.get(name) : null;
+        }
+
+        @Override
+        Object convert(JSValue value) {
+            String name = STRING.convert(value);
+            return name != null ? mConstants.get(name) : null;
+        }
+    }
+
+    private static final class ListAdapter extends TypeAdapter<List<Object>> {
+        private final TypeAdapter<?> mElementAdapter;
+
+        ListAdapter(TypeAdapter<?> elementAdapter) {
+            mElementAdapter = elementAdapter;
+        }
+
+        @Override
+        List<Object> read(JSValueDecoder decoder) throws JSONException {
+            if (decoder.peekToken() != '[') {
+                decoder.skipValue();
+                return null;
+            }
+
+            List<Object> result = new ArrayList<>();
+            if (decoder.beginArray()) {
+                do {
+                    result.add(mElementAdapter.read(decoder));
+                } while (decoder.nextElement());
+            }
+            return result;
+        }
+
+        @Override
+        List<Object> convert(JSValue value) {
+            List<?> list = value.listValue();
+            if (list == null) {
+                return null;
+            }
+
+            List<Object> result = new ArrayList<>(list.size());
+            for (Object item : list) {
+                result.add(mElementAdapter.convert((JSValue)item));
+            }
+            return result;
+        }
+    }
+
+    private static final class ArrayAdapter extends TypeAdapter<Object> {
+        private final Class<?> mComponentClass;
+        private final ListAdapter mListAdapter;
+
+        ArrayAdapter(Class<?> componentClass, TypeAdapter<?> componentAdapter) {
+            mComponentClass = componentClass;
+            mListAdapter = new ListAdapter(componentAdapter);
+        }
+
+        @Override
+        Object read(JSValueDecoder decoder) throws JSONException {
+            return toArray(mListAdapter.read(decoder));
+        }
+
+        @Override
+        Object convert(JSValue value) {
+            return toArray(mListAdapter.convert(value));
+        }
+
+        private Object toArray(List<Object> list) {
+            if (list == null) {
+                return null;
+            }
+
+            Object result = Array.newInstance(mComponentClass, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Object item = list.get(i);
+                // nulls can't go in an array of primitives, they're left at zero.
+                if (item != null || !mComponentClass.isPrimitive()) {
+                    Array.set(result, i, item);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class MapAdapter extends TypeAdapter<Map<String, Object>> {
+        private final TypeAdapter<?> mValueAdapter;
+
+        MapAdapter(TypeAdapter<?> valueAdapter) {
+            mValueAdapter = valueAdapter;
+        }
+
+        @Override
+        Map<String, Object> read(JSValueDecoder decoder) throws JSONException {
+            if (decoder.peekToken() != '{') {
+                decoder.skipValue();
+                return null;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            if (decoder.beginObject()) {
+                do {
+                    String name = decoder.nextName();
+                    result.put(name, mValueAdapter.read(decoder));
+                } while (decoder.nextMember());
+            }
+            return result;
+        }
+
+        @Override
+        Map<String, Object> convert(JSValue value) {
+            Map<?, ?> map = value.mapValue();
+            if (map == null) {
+                return null;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put((String)entry.getKey(), mValueAdapter.convert((JSValue)entry.getValue()));
+            }
+            return result;
+        }
+    }
+
+    /*
+    A plain class, each field set from the member with the same name.  Fields are found the first
+    time one is decoded rather than up front, so classes that refer to themselves work.
+     */
+    private static final class ObjectAdapter<T> extends TypeAdapter<T> {
+        private final Class<T> mClass;
+        private final Constructor<T> mConstructor;
+        // mNames[i] is the name of mFields[i].
+        private volatile String[] mNames = null;
+        private FieldBinding[] mFields = null;
+
+        ObjectAdapter(Class<T> cls) {
+            mClass = cls;
+            try {
+                mConstructor = cls.getDeclaredConstructor();
+                mConstructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(cls.getName() + " needs a constructor without arguments to be decoded into", e);
+            }
+        }
+
+        @Override
+        T read(JSValueDecoder decoder) throws JSONException {
+            if (decoder.peekToken() != '{') {
+                decoder.skipValue();
+                return null;
+            }
+
+            String[] names = names();
+            FieldBinding[] fields = mFields;
+            T result = newInstance();
+            if (decoder.beginObject()) {
+                int next = 0;
+                do {
+                    int index = decoder.nextNameIndex(names, next);
+                    if (index >= 0) {
+                        fields[index].read(decoder, result);
+                        next = index + 1;
+                    } else {
+                        decoder.skipValue();
+                    }
+                } while (decoder.nextMember());
+            }
+            return result;
+        }
+
+        @Override
+        T convert(JSValue value) {
+            if (value.getType() != JSValue.Type.OBJECT) {
+                return null;
+            }
+
+            String[] names = names();
+            FieldBinding[] fields = mFields;
+            T result = newInstance();
+            for (int i = 0; i < names.length; i++) {
+                JSValue member = value.member(names[i]);
+                if (member != null) {
+                    fields[i].convert(member, result);
+                }
+            }
+            return result;
+        }
+
+        private T newInstance() {
+            try {
+                return mConstructor.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("Can't create " + mClass.getName(), e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Can't create " + mClass.getName(), e.getCause());
+            }
+        }
+
+        private String[] names() {
+            if (mNames == null) {
+                synchronized (this) {
+                    if (mNames == null) {
+                        findFields();
+                    }
+                }
+            }
+            return mNames;
+        }
+
+        private void findFields() {
+            List<Field> found = mappedFields(mClass);
+            FieldBinding[] fields = new FieldBinding[found.size()];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new FieldBinding(found.get(i));
+                names[i] = found.get(i).getName();
+            }
+
+            mFields = fields;
+            // written last, it's what tells other threads the fields are ready.
+            mNames = names;
+        }
+    }
+
+    /*
+    One field of a plain class.  Primitive fields are set without boxing.
+     */
+    private static final class FieldBinding {
+        private final Field mField;
+        private final Class<?> mType;
+        private final TypeAdapter<?> mAdapter;
+
+        FieldBinding(Field field) {
+            mField = field;
+            mType = field.getType();
+            mAdapter = mType.isPrimitive() ? null : forType(field.getGenericType());
+        }
+
+        void read(JSValueDecoder decoder, Object target) throws JSONException {
+            try {
+                if (mAdapter != null) {
+                    mField.set(target, mAdapter.read(decoder));
+                    return;
+                }
+
+                char c = decoder.peekToken();
+                if (mType == boolean.class) {
+                    if (c == 't' || c == 'f') {
+                        mField.setBoolean(target, decoder.nextBoolean());
+                        return;
+                    }
+                } else if (JSValueDecoder.isNumberStart(c)) {
+                    if (mType == int.class) {
+                        mField.setInt(target, (int)decoder.nextLong());
+                    } else if (mType == long.class) {
+                        mField.setLong(target, decoder.nextLong());
+                    } else if (mType == double.class) {
+                        mField.setDouble(target, decoder.nextDouble());
+                    } else if (mType == float.class) {
+                        mField.setFloat(target, (float)decoder.nextDouble());
+                    } else {
+                        decoder.skipValue();
+                    }
+                    return;
+                }
+                // the wrong kind of value, the field is left as it is.
+                decoder.skipValue();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void convert(JSValue value, Object target) {
+            try {
+                if (mAdapter != null) {
+                    mField.set(target, mAdapter.convert(value));
+                } else if (mType == boolean.class) {
+                    if (value.getType() == JSValue.Type.BOOLEAN) {
+                        mField.setBoolean(target, value.booleanValue(false));
+                    }
+                } else if (isNumber(value)) {
+                    if (mType == int.class) {
+                        mField.setInt(target, (int)value.longValue(0));
+                    } else if (mType == long.class) {
+                        mField.setLong(target, value.longValue(0));
+                    } else if (mType == double.class) {
+                        mField.setDouble(target, value.doubleValue(0));
+                    } else if (mType == float.class) {
+                        mField.setFloat(target, (float)value.doubleValue(0));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class ArgumentsAdapter extends TypeAdapter<Object[]> {
+        private final TypeAdapter<?>[] mAdapters;
+
+        ArgumentsAdapter(TypeAdapter<?>[] adapters) {
+            mAdapters = adapters;
+        }
+
+        @Override
+        Object[] read(JSValueDecoder decoder) throws JSONException {
+            Object[] result = new Object[mAdapters.length];
+
+            if (decoder.beginArray()) {
+                int index = 0;
+                do {
+                    if (index < mAdapters.length) {
+                        result[index] = mAdapters[index].read(decoder);
+                    } else {
+                        decoder.skipValue();
+                    }
+                    index++;
+                } while (decoder.nextElement());
+            }
+            return result;
+        }
+
+        @Override
+        Object[] convert(JSValue value) {
+            Object[] result = new Object[mAdapters.length];
+
+            for (int i = 0; i < result.length; i++) {
+                JSValue item = value.element(i);
+                result[i] = item != null ? mAdapters[i].convert(item) : null;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks functions decoded from a page are released back to it, explicitly and once collected.
+ */
+public class FunctionTableTest extends TestCase {
+    private final List<String> mReleased = new ArrayList<>();
+    private final FunctionTable.Owner mOwner = new FunctionTable.Owner() {
+        @Override
+        public void releaseFunctions(String ids) {
+            synchronized (mReleased) {
+                mReleased.add(ids);
+            }
+        }
+    };
+    private FunctionTable mTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTable = FunctionTable.create(mOwner);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTable.close();
+        super.tearDown();
+    }
+
+    public void testSameIDDecodesToOneFunction() throws Exception {
+        JSValue value = new JSValue(envelope("[\"function:4:ZnVuY3Rpb24oKSB7fQ==\", {\"x\": \"function:4:\"}]", 4));
+
+        assertSame(value.get("0").value(), value.get("1.x").value());
+        assertEquals("function() {}", value.get("1.x").functionSourceValue());
+        assertEquals(1, mTable.liveCount());
+    }
+
+    public void testExplicitRelease() throws Exception {
+        JSValue value = new JSValue(envelope("[\"function:4:\", \"function:5:\"]", 4, 5));
+        assertEquals(2, mTable.liveCount());
+
+        value.get("0").release();
+        value.get("0").release();
+
+        assertEquals(1, mTable.liveCount());
+        assertEquals(1, mTable.releasedCount());
+        assertEquals("4", mReleased.get(0));
+        assertEquals(1, mReleased.size());
+    }
+
+    public void testLazyValuesTrackEveryFunction() throws Exception {
+        JSValue value = JSValue.lazy(envelope("{\"a\": [\"function:8:\"], \"b\": \"function:9:\"}", 8, 9));
+
+        // nothing has been decoded yet, but the page is holding both already.
+        assertEquals(2, mTable.liveCount());
+        assertEquals("9", value.get("b").functionIDValue());
+    }
+
+    public void testCollectedFunctionsAreReleased() throws Exception {
+        decodeAndDrop();
+
+        for (int i = 0; i < 20 && mTable.liveCount() > 0; i++) {
+            Runtime.getRuntime().gc();
+            Thread.sleep(50);
+            FunctionTable.drainCollected();
+        }
+
+        assertEquals(0, mTable.liveCount());
+        assertEquals(2, mTable.collectedCount());
+        synchronized (mReleased) {
+            assertEquals(1, mReleased.size());
+            assertTrue(mReleased.get(0).equals("6,7") || mReleased.get(0).equals("7,6"));
+        }
+    }
+
+    public void testUnknownBridgeIsUntracked() throws Exception {
+        JSValue value = new JSValue("{\"__bridgeID\": -1, \"__functions\": [3], \"__rawValue\": \"function:3:\"}");
+
+        assertEquals("3", value.functionIDValue());
+        value.release();
+        assertEquals(0, mTable.trackedCount());
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private void decodeAndDrop() {
+        JSValue value = new JSValue(envelope("[\"function:6:\", \"function:7:\"]", 6, 7));
+        assertEquals(2, mTable.liveCount());
+    }
+
+    private String envelope(String rawValue, int... functionIDs) {
+        StringBuilder builder = new StringBuilder("{\"__bridgeID\": ").append(mTable.bridgeID()).append(", \"__functions\": [");
+        for (int i = 0; i < functionIDs.length; i++) {
+            builder.append(i == 0 ? "" : ",").append(functionIDs[i]);
+        }
+        return builder.append("], \"__rawValue\": ").append(rawValue).append('}').toString();
+    }
+}
@@ -0,0 +1,100 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks how JSCalls finish.  CallWatchdogTest checks the ones that never come back time out.
+ */
+public class JSCallTest extends TestCase {
+    public void testCompletesWithResult() throws Exception {
+        JSCall call = new JSCall(0);
+
+        assertTrue(call.complete("{\"__rawValue\": {\"n\": 4}}"));
+        assertTrue(call.isDone());
+        assertEquals(4, call.get().getInt("n", 0));
+    }
+
+    public void testErrorEnvelopeFailsCall() throws Exception {
+        JSCall call = new JSCall(0);
+        call.complete("{\"__error\": {\"message\": \"bad page\", \"stack\": \"at page.js:3\"}}");
+
+        try {
+            call.get();
+            fail("expected the call to fail");
+        } catch (ExecutionException e) {
+            JSException error = (JSException)e.getCause();
+            assertEquals("bad page", error.getMessage());
+            assertEquals("at page.js:3", error.getJavascriptStack());
+        }
+    }
+
+    public void testFinishesOnce() throws Exception {
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        JSCall call = new JSCall(0);
+        call.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                finished.incrementAndGet();
+            }
+        });
+        call.addCallback(new JSCall.Callback() {
+            @Override
+            public void onResult(JSValue value) {
+                fail("cancelled calls have no result");
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+            }
+        });
+
+        assertTrue(call.cancel(false));
+        // a result showing up after the call was cancelled is ignored.
+        assertFalse(call.complete("{\"__rawValue\": 1}"));
+
+        assertTrue(call.isCancelled());
+        assertEquals(1, finished.get());
+        assertTrue(error.get() instanceof CancellationException);
+    }
+
+    public void testCallbackAddedAfterFinishing() throws Exception {
+        final AtomicReference<JSValue> result = new AtomicReference<>();
+        JSCall call = new JSCall(0);
+        call.complete("{\"__rawValue\": \"done\"}");
+
+        call.addCallback(new JSCall.Callback() {
+            @Override
+            public void onResult(JSValue value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.getMessage());
+            }
+        });
+
+        assertEquals("done", result.get().stringValue());
+    }
+
+    public void testGetTimesOutWithoutFinishing() throws Exception {
+        JSCall call = new JSCall(0);
+
+        try {
+            call.get(10, TimeUnit.MILLISECONDS);
+            fail("expected get() to time out");
+        } catch (TimeoutException e) {
+            // still running.
+        }
+        assertFalse(call.isDone());
+    }
+}
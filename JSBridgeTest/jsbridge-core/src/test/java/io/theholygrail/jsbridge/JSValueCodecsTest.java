@@ -0,0 +1,77 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+
+/**
+ * Checks every codec decodes the same bridge strings to the same values, and that the one set is
+ * the one JSValue uses.  JsonReaderCodec needs Android, it's checked in JsonReaderCodecTest.
+ */
+public class JSValueCodecsTest extends TestCase {
+    private final JSValueCodec[] mCodecs = {
+            JSValueCodecs.STREAMING, JSValueCodecs.ORG_JSON
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        JSValueCodecs.setCodec(null);
+        super.tearDown();
+    }
+
+    public void testDefaultsToStreaming() throws Exception {
+        assertSame(JSValueCodecs.STREAMING, JSValueCodecs.getCodec());
+
+        JSValueCodecs.setCodec(JSValueCodecs.ORG_JSON);
+        assertSame(JSValueCodecs.ORG_JSON, JSValueCodecs.getCodec());
+
+        JSValueCodecs.setCodec(null);
+        assertSame(JSValueCodecs.STREAMING, JSValueCodecs.getCodec());
+    }
+
+    public void testCodecsAgree() throws Exception {
+        String payload = JSValueDecoderTest.generateRecords(50);
+        String expected = JSValueCodecs.STREAMING.decode(payload).javascriptStringValue();
+
+        for (JSValueCodec codec : mCodecs) {
+            JSValueCodecs.setCodec(codec);
+            JSValue value = new JSValue(payload);
+
+            assertEquals(Integer.valueOf(7), value.get("7.id").integerValue());
+            assertEquals(Double.valueOf(3.75), value.get("3.price").doubleValue());
+            assertEquals("Record \"9\"", value.get("9.name").stringValue());
+            assertTrue(value.get("2.tags.2").isNull());
+            assertEquals(expected, value.javascriptStringValue());
+        }
+    }
+
+    public void testNumberTypes() throws Exception {
+        String payload = "{\"__rawValue\": [25, 8589934592, 2.5, \"function:3:\"]}";
+
+        for (JSValueCodec codec : mCodecs) {
+            JSValue value = codec.decode(payload);
+
+            assertEquals(JSValue.Type.INTEGER, value.get("0").getType());
+            assertEquals(JSValue.Type.LONG, value.get("1").getType());
+            assertEquals(JSValue.Type.DOUBLE, value.get("2").getType());
+            assertTrue(value.get("3").isFunction());
+        }
+    }
+
+    public void testMalformedStrings() throws Exception {
+        for (JSValueCodec codec : mCodecs) {
+            for (String payload : new String[] { "{\"__rawValue\": [1, 2,", "{\"other\": 1}" }) {
+                try {
+                    codec.decode(payload);
+                    fail("Decoded " + payload);
+                } catch (JSONException e) {
+                    // expected.
+                }
+            }
+        }
+
+        JSValueCodecs.setCodec(JSValueCodecs.ORG_JSON);
+        assertFalse(new JSValue("{\"__rawValue\": [1, 2,").isValid());
+    }
+}
@@ -0,0 +1,187 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the streaming decoder against the org.json + decompose() path.  What they allocate is
+ * checked on a device, see DecodingAllocationTest.
+ */
+public class JSValueDecoderTest extends TestCase {
+    public void testDecodesScalars() throws Exception {
+        assertEquals(Integer.valueOf(25), new JSValue("{\"__rawValue\": 25}").integerValue());
+        assertEquals(Double.valueOf(2.5), new JSValue("{\"__rawValue\": 2.5}").doubleValue());
+        assertEquals(Long.valueOf(8589934592L), new JSValue("{\"__rawValue\": 8589934592}").value());
+        assertEquals(Boolean.TRUE, new JSValue("{\"__rawValue\": true}").value());
+        assertEquals("a \"quoted\"\nline \u00e9", new JSValue("{\"__rawValue\": \"a \\\"quoted\\\"\\nline \\u00e9\"}").stringValue());
+        assertTrue(new JSValue("{\"__rawValue\": null}").isNull());
+        assertTrue(new JSValue("{\"__rawValue\": \"function:3:ZnVuY3Rpb24oKSB7fQ==\"}").isFunction());
+    }
+
+    public void testLargeNumbersSaturateAsInts() throws Exception {
+        JSValue value = new JSValue("{\"__rawValue\": {\"big\": 8589934593, \"small\": -8589934593, \"huge\": 1e20}}");
+
+        // 2^33 + 1 would otherwise come back as 1.
+        assertEquals(Integer.MAX_VALUE, value.getInt("big", 0));
+        assertEquals(Integer.MIN_VALUE, value.getInt("small", 0));
+        assertEquals(Integer.MAX_VALUE, value.getInt("huge", 0));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), value.get("big").integerValue());
+        assertEquals(8589934593L, value.getLong("big", 0));
+    }
+
+    public void testFunctionDescriptors() throws Exception {
+        JSValue function = new JSValue("{\"__rawValue\": \"function:3:ZnVuY3Rpb24oKSB7fQ==\"}");
+        assertTrue(function.isFunction());
+        assertFalse(function.isString());
+        assertNull(function.stringValue());
+        assertEquals("3", function.functionIDValue());
+        assertEquals("function() {}", function.functionSourceValue());
+        assertEquals("f(a) { return a + 1; }",
+                new JSValue("{\"__rawValue\": \"function:4:ZihhKSB7IHJldHVybiBhICsgMTsgfQ==\"}").functionSourceValue());
+
+        // sent without source.
+        JSValue bare = new JSValue("{\"__rawValue\": [\"function:12:\"]}").get("0");
+        assertTrue(bare.isFunction());
+        assertEquals("12", bare.functionIDValue());
+        assertNull(bare.functionSourceValue());
+    }
+
+    public void testUnpackArguments() throws Exception {
+        JSValue[] arguments = JSValue.unpackArguments("{\"__rawValue\": [{\"a\": 1}, \"x\", \"function:1:\", null]}");
+        assertEquals(4, arguments.length);
+        assertEquals(Integer.valueOf(1), arguments[0].get("a").integerValue());
+        assertEquals("x", arguments[1].stringValue());
+        assertTrue(arguments[2].isFunction());
+        assertTrue(arguments[3].isNull());
+
+        assertEquals(0, JSValue.unpackArguments("{\"__rawValue\": 5}").length);
+        assertEquals(0, JSValue.unpackArguments("{\"__rawValue\": [").length);
+    }
+
+    public void testInvalidInputIsNull() throws Exception {
+        assertFalse(new JSValue("{\"__rawValue\": [1, 2").isValid());
+        assertFalse(new JSValue("{\"notRaw\": 1}").isValid());
+        assertFalse(new JSValue("25").isValid());
+    }
+
+    public void testMatchesLegacyDecoding() throws Exception {
+        String payload = generateRecords(200);
+
+        JSValue streamed = new JSValue(payload);
+        JSValue legacy = decodeLegacy(payload);
+
+        assertSameStructure(legacy, streamed);
+    }
+
+    public void testLazyMatchesEagerDecoding() throws Exception {
+        String payload = generateRecords(200);
+
+        assertSameStructure(new JSValue(payload), JSValue.lazy(payload));
+    }
+
+    public void testKeyPathAccess() throws Exception {
+        String payload = generateRecords(10);
+
+        for (JSValue value : new JSValue[] { new JSValue(payload), JSValue.lazy(payload) }) {
+            assertEquals(Double.valueOf(3.75), value.get("3.price").doubleValue());
+            assertEquals("Herbert", value.get("9.owner.first").stringValue());
+            assertTrue(value.get("2.tags.2").isNull());
+            assertNull(value.get("10.price"));
+            assertNull(value.get("3.price.nope"));
+        }
+
+        assertFalse(JSValue.lazy("{\"__rawValue\": [1, 2,]}").isValid());
+    }
+
+    public void testNumericArraysArePacked() throws Exception {
+        JSValue ints = new JSValue("{\"__rawValue\": [1, -2, 3]}");
+        assertTrue(ints.isArray());
+        assertTrue(Arrays.equals(new int[] { 1, -2, 3 }, ints.intArrayValue()));
+        assertTrue(Arrays.equals(new double[] { 1, -2, 3 }, ints.doubleArrayValue()));
+        assertEquals(Integer.valueOf(-2), ints.get("1").integerValue());
+        assertEquals(3, ints.listValue().size());
+        // built once, then kept.
+        assertSame(ints.listValue(), ints.listValue());
+        assertEquals(Integer.valueOf(-2), ((JSValue)ints.listValue().get(1)).integerValue());
+        assertTrue(Arrays.equals(new int[] { 1, -2, 3 }, ints.intArrayValue()));
+        assertEquals("[1,-2,3]", ints.javascriptStringValue());
+
+        JSValue doubles = new JSValue("{\"__rawValue\": [1, 2.5, -3e-2, 8589934592]}");
+        assertNull(doubles.intArrayValue());
+        assertTrue(Arrays.equals(new double[] { 1, 2.5, -0.03, 8589934592.0 }, doubles.doubleArrayValue()));
+        assertEquals(Double.valueOf(2.5), doubles.get("1").doubleValue());
+
+        // anything else in there and it's a normal list.
+        JSValue mixed = new JSValue("{\"__rawValue\": [1, \"two\", 3]}");
+        assertTrue(mixed.mValue instanceof List);
+        assertEquals("two", mixed.get("1").stringValue());
+        assertNull(mixed.doubleArrayValue());
+
+        JSValue lazy = JSValue.lazy("{\"__rawValue\": {\"series\": [0.5, 1.5]}}");
+        assertTrue(Arrays.equals(new double[] { 0.5, 1.5 }, lazy.get("series").doubleArrayValue()));
+    }
+
+    public void testDecodesDoublesExactly() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double expected = (random.nextInt(2000000) - 1000000) / 1000.0 * Math.pow(10, random.nextInt(20) - 10);
+            String literal = Double.toString(expected);
+            Double decoded = new JSValue("{\"__rawValue\": " + literal + "}").doubleValue();
+            assertEquals(literal, Double.parseDouble(literal), decoded.doubleValue());
+        }
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static JSValue decodeLegacy(String payload) throws Exception {
+        JSONObject jsonObject = new JSONObject(payload);
+        return JSValue.decompose(jsonObject.get("__rawValue"));
+    }
+
+    static String generateRecords(int count) {
+        StringBuilder builder = new StringBuilder("{\"__rawValue\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\": ").append(i)
+                    .append(", \"name\": \"Record \\\"").append(i).append("\\\"\"")
+                    .append(", \"price\": ").append(i * 1.25)
+                    .append(", \"active\": ").append(i % 2 == 0)
+                    .append(", \"tags\": [\"a\", \"b\", null]")
+                    .append(", \"owner\": {\"first\": \"Herbert\", \"age\": 22}}");
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    private static void assertSameStructure(JSValue expected, JSValue actual) {
+        if (expected.isMap()) {
+            Map expectedMap = expected.mapValue();
+            Map actualMap = actual.mapValue();
+            assertNotNull(actualMap);
+            assertEquals(expectedMap.keySet(), actualMap.keySet());
+            for (Object key : expectedMap.keySet()) {
+                assertSameStructure((JSValue)expectedMap.get(key), (JSValue)actualMap.get(key));
+            }
+        } else if (expected.isList()) {
+            List expectedList = expected.listValue();
+            List actualList = actual.listValue();
+            assertNotNull(actualList);
+            assertEquals(expectedList.size(), actualList.size());
+            for (int i = 0; i < expectedList.size(); i++) {
+                assertSameStructure((JSValue)expectedList.get(i), (JSValue)actualList.get(i));
+            }
+        } else {
+            assertEquals(expected.isNull(), actual.isNull());
+            assertEquals(expected.isBoolean(), actual.isBoolean());
+            assertEquals(expected.stringValue(), actual.stringValue());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks the javascript JSValues are written out as, and times it for a few argument sizes.
+ */
+public class JavascriptWriterTest extends TestCase {
+    private static final String TAG = "JavascriptWriterTest";
+
+    enum Shape {
+        ROUND
+    }
+
+    static class Point {
+        int x;
+        double y;
+        String label;
+        Shape shape;
+        transient int skipped = 5;
+    }
+
+    public void testWritesObjectsAndArrays() throws Exception {
+        JSValue value = new JSValue("{\"__rawValue\": {\"list\": [1, 2.5, true, null]}}");
+        assertEquals("{\"list\":[1,2.5,true,null]}", value.javascriptStringValue());
+
+        JSValue map = new JSValue("{\"__rawValue\": {\"a\": 1, \"b\": 2}}");
+        String javascript = map.javascriptStringValue();
+        assertTrue(javascript.equals("{\"a\":1,\"b\":2}") || javascript.equals("{\"b\":2,\"a\":1}"));
+    }
+
+    public void testEscapesStrings() throws Exception {
+        JSValue value = new JSValue("{\"__rawValue\": \"it's \\\"quoted\\\"\\n\\\\ \\u2028\"}");
+        assertEquals("\"it's \\\"quoted\\\"\\n\\\\ \\u2028\"", value.javascriptStringValue());
+    }
+
+    public void testWritesFunctionReferences() throws Exception {
+        JSValue value = new JSValue("{\"__rawValue\": [\"function:7:ZnVuY3Rpb24oKSB7fQ==\"]}");
+        assertEquals("[__functionCache[7]]", value.javascriptStringValue());
+    }
+
+    public void testWritesJavaArguments() throws Exception {
+        Point point = new Point();
+        point.x = 1;
+        point.y = 2.5;
+        point.label = "a\"b";
+        point.shape = Shape.ROUND;
+
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("points", Arrays.asList(point, null));
+        options.put("ids", new long[] { 8589934592L, 2 });
+        options.put("ratio", 0.1f);
+        options.put("names", Collections.singleton("x"));
+
+        JSValue function = new JSValue("{\"__rawValue\": \"function:7:\"}");
+        JSValue value = new JSValue("{\"__rawValue\": [1, \"function:8:\"]}");
+        String call = JavascriptWriter.toCall(function, new Object[] { "hi", 3, true, options, new Object[] { value }, null });
+
+        assertEquals("__functionCache[7].apply(null, [\"hi\",3,true,{\"points\":[{\"x\":1,\"y\":2.5," +
+                "\"label\":\"a\\\"b\",\"shape\":\"ROUND\"},null],\"ids\":[8589934592,2],\"ratio\":0.1," +
+                "\"names\":[\"x\"]},[[1,__functionCache[8]]],null])", call);
+        assertEquals("__functionCache[7].apply(null, [])", JavascriptWriter.toCall(function, null));
+    }
+
+    public void testBenchmarkWriting() throws Exception {
+        int[] targetSizes = { 1024, 100 * 1024, 1024 * 1024 };
+        StringBuilder builder = new StringBuilder();
+
+        for (int targetSize : targetSizes) {
+            JSValue value = new JSValue(generatePayload(targetSize));
+            int length = value.javascriptStringValue().length();
+            int iterations = Math.max(5, (4 * 1024 * 1024) / length);
+
+            // warm up.
+            for (int i = 0; i < 3; i++) {
+                builder.setLength(0);
+                value.appendJavascriptString(builder);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                value.javascriptStringValue();
+            }
+            long nanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                builder.setLength(0);
+                value.appendJavascriptString(builder);
+            }
+            long reusedNanos = System.nanoTime() - start;
+
+            System.out.println(TAG + ": " + String.format("%d KB graph: %.1f MB/s, %.1f MB/s into a reused builder",
+                    length / 1024, megabytesPerSecond((long)length * iterations, nanos),
+                    megabytesPerSecond((long)length * iterations, reusedNanos)));
+        }
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static String generatePayload(int targetSize) {
+        int count = 1;
+        String payload = JSValueDecoderTest.generateRecords(count);
+        while (payload.length() < targetSize) {
+            count = Math.max(count + 1, (int)(count * (targetSize / (double)payload.length())));
+            payload = JSValueDecoderTest.generateRecords(count);
+        }
+        return payload;
+    }
+
+    private static double megabytesPerSecond(long chars, long nanos) {
+        return (chars / (1024.0 * 1024.0)) / (nanos / 1000000000.0);
+    }
+}
@@ -0,0 +1,82 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the pending result table from many threads at once, the way concurrent callFunction()
+ * calls and their results coming back from the JavaBridge thread would.
+ */
+public class PendingResultsTest extends TestCase {
+    private static final String TAG = "PendingResultsTest";
+
+    public void testResultsFindTheirCallers() throws Exception {
+        PendingResults<String> pending = new PendingResults<>();
+
+        int first = pending.add("first");
+        int second = pending.add("second");
+
+        assertEquals("second", pending.remove(second));
+        assertEquals("first", pending.remove(first));
+        assertNull(pending.remove(first));
+        assertEquals(0, pending.size());
+    }
+
+    public void testLostResultDoesNotBlockOthers() throws Exception {
+        PendingResults<String> pending = new PendingResults<>();
+
+        // this one never comes back.
+        pending.add("lost");
+        int callID = pending.add("found");
+
+        assertEquals("found", pending.remove(callID));
+        assertEquals(1, pending.size());
+    }
+
+    public void testParallelCallersThroughput() throws Exception {
+        final int callers = 8;
+        final int callsPerCaller = 20000;
+        final PendingResults<Runnable> pending = new PendingResults<>();
+        final AtomicInteger delivered = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(callers);
+
+        final Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        };
+
+        long start = System.nanoTime();
+        for (int i = 0; i < callers; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int[] inFlight = new int[16];
+                    for (int call = 0; call < callsPerCaller; call += inFlight.length) {
+                        // keep a handful of calls outstanding before their results come back.
+                        for (int j = 0; j < inFlight.length; j++) {
+                            inFlight[j] = pending.add(callback);
+                        }
+                        for (int j = inFlight.length - 1; j >= 0; j--) {
+                            pending.remove(inFlight[j]).run();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        long nanos = System.nanoTime() - start;
+
+        int total = callers * callsPerCaller;
+        assertEquals(total, delivered.get());
+        assertEquals(0, pending.size());
+
+        System.out.println(TAG + ": " + String.format("%d callers: %.0f round trips/sec", callers, total / (nanos / 1000000000.0)));
+    }
+}
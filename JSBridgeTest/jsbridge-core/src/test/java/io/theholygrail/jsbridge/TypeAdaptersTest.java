@@ -0,0 +1,109 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks bridge strings decode straight into plain classes.  That it costs less than a JSValue
+ * tree is checked on a device, see DecodingAllocationTest.
+ */
+public class TypeAdaptersTest extends TestCase {
+    private static final String ORDER = "{\"__rawValue\": {\"id\": 8589934592, \"status\": \"SHIPPED\", " +
+            "\"customer\": {\"name\": \"Herbert\", \"vip\": true}, \"lines\": [{\"sku\": \"A-1\", \"quantity\": 2, " +
+            "\"price\": 4.5}, {\"sku\": \"B-2\", \"quantity\": 1, \"price\": 10}], \"tags\": {\"gift\": \"yes\"}, " +
+            "\"weights\": [0.5, 1.5], \"unknown\": [1, {\"a\": 2}], \"onUpdate\": \"function:3:\"}}";
+
+    enum Status {
+        PENDING,
+        SHIPPED
+    }
+
+    static class Customer {
+        String name;
+        boolean vip;
+    }
+
+    static class Line {
+        String sku;
+        int quantity;
+        double price;
+    }
+
+    static class Order {
+        long id;
+        Status status;
+        Customer customer;
+        List<Line> lines;
+        Map<String, String> tags;
+        double[] weights;
+        JSValue onUpdate;
+        transient String notDecoded = "kept";
+    }
+
+    static class Node {
+        int value;
+        Node next;
+    }
+
+    public void testDecodesStraightIntoClass() throws Exception {
+        assertOrder(JSValue.decode(ORDER, Order.class));
+    }
+
+    public void testDecodeAsMatchesDecode() throws Exception {
+        assertOrder(new JSValue(ORDER).decodeAs(Order.class));
+        // not decoded yet, so this reads the string itself.
+        assertOrder(JSValue.lazy(ORDER).decodeAs(Order.class));
+        assertEquals("B-2", JSValue.lazy(ORDER).get("lines.1").decodeAs(Line.class).sku);
+    }
+
+    public void testWrongKindsAreLeftUnset() throws Exception {
+        String json = "{\"__rawValue\": {\"sku\": 12, \"quantity\": \"two\", \"price\": null}}";
+
+        Line streamed = JSValue.decode(json, Line.class);
+        Line converted = new JSValue(json).decodeAs(Line.class);
+
+        for (Line line : new Line[] { streamed, converted }) {
+            assertNull(line.sku);
+            assertEquals(0, line.quantity);
+            assertEquals(0.0, line.price, 0);
+        }
+        assertNull(JSValue.decode("{\"__rawValue\": [1, 2]}", Line.class));
+    }
+
+    public void testClassesReferringToThemselves() throws Exception {
+        Node node = JSValue.decode("{\"__rawValue\": {\"value\": 1, \"next\": {\"value\": 2, \"next\": null}}}", Node.class);
+
+        assertEquals(1, node.value);
+        assertEquals(2, node.next.value);
+        assertNull(node.next.next);
+    }
+
+    public void testUnsupportedTypes() throws Exception {
+        try {
+            JSValue.decode(ORDER, Runnable.class);
+            fail("interfaces can't be created");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static void assertOrder(Order order) {
+        assertEquals(8589934592L, order.id);
+        assertEquals(Status.SHIPPED, order.status);
+        assertEquals("Herbert", order.customer.name);
+        assertTrue(order.customer.vip);
+        assertEquals(2, order.lines.size());
+        assertEquals("A-1", order.lines.get(0).sku);
+        assertEquals(2, order.lines.get(0).quantity);
+        assertEquals(4.5, order.lines.get(0).price, 0);
+        assertEquals(10.0, order.lines.get(1).price, 0);
+        assertEquals("yes", order.tags.get("gift"));
+        assertEquals(1.5, order.weights[1], 0);
+        assertTrue(order.onUpdate.isFunction());
+        assertEquals("kept", order.notDecoded);
+    }
+}
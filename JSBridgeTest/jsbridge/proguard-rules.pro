@@ -15,3 +15,18 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# Generated bindings are looked up by name, and exported methods are called from javascript.
+-keep class **$$JSBinding { *; }
+-keepclassmembers class * {
+    @android.webkit.JavascriptInterface <methods>;
+}
+
+# @PackedArguments is looked up at runtime for classes without a generated binding.
+-keepattributes *Annotation*
+-keep @interface io.theholygrail.jsbridge.PackedArguments
+-keep @interface io.theholygrail.jsbridge.DispatchOn
+-keep enum io.theholygrail.jsbridge.Dispatch { *; }
+
+# jsbridge-core finds the Android side of the bridge by name.
+-keep class io.theholygrail.jsbridge.AndroidPlatform { <init>(); }
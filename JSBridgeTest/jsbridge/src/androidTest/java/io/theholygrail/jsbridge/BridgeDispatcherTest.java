@@ -0,0 +1,385 @@
+package io.theholygrail.jsbridge;
+
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks exported methods are run where they asked to be, that what they throw doesn't escape,
+ * what happens once the queue fills up, and how much a slow handler holds up the JavaBridge
+ * thread either way.
+ */
+public class BridgeDispatcherTest extends TestCase {
+    private static final String TAG = "BridgeDispatcherTest";
+    private static final int SLOW_CALLS = 40;
+    private static final long SLOW_CALL_MILLIS = 20;
+
+    public static class Exported {
+        final AtomicReference<String> mCalled = new AtomicReference<>();
+
+        @JavascriptInterface
+        @DispatchOn(Dispatch.MAIN)
+        public void scrolled(int x, boolean settled, String extra) {
+            mCalled.set(x + " " + settled + " " + new JSValue(extra).stringValue() + " on " + Thread.currentThread().getName());
+        }
+
+        @JavascriptInterface
+        @PackedArguments
+        public void updated(String arguments) {
+            mCalled.set(JSValue.unpackArguments(arguments).length + " arguments");
+        }
+
+        @JavascriptInterface
+        public int count() {
+            return 0;
+        }
+
+        @JavascriptInterface
+        @DispatchOn(Dispatch.DIRECT)
+        public void direct() {
+        }
+    }
+
+    public static class Slow {
+        final CountDownLatch mFinished = new CountDownLatch(SLOW_CALLS);
+
+        @JavascriptInterface
+        public void save(String record) {
+            try {
+                Thread.sleep(SLOW_CALL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mFinished.countDown();
+        }
+    }
+
+    public static class Typed {
+        public static class Item {
+            String sku;
+            int quantity;
+        }
+
+        Item mItem;
+        String mNote;
+
+        @JavascriptInterface
+        public void added(Item item, String note) {
+            mItem = item;
+            mNote = new JSValue(note).stringValue();
+        }
+    }
+
+    public static class Throwing {
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        @JavascriptInterface
+        @DispatchOn(Dispatch.BACKGROUND)
+        public void fails() {
+            mCalls.incrementAndGet();
+            throw new IllegalStateException("expected");
+        }
+    }
+
+    // nothing's annotated, everything comes from its binding.
+    public static class Bound {
+        final AtomicReference<String> mCalled = new AtomicReference<>();
+
+        public void tapped(int x, List<Typed.Item> items) {
+            mCalled.set(x + " " + items.get(0).sku + " on " + Thread.currentThread().getName());
+        }
+    }
+
+    // what jsbridge-compiler writes for Bound, if it were annotated.
+    public static final class Bound$$JSBinding implements JSBinding {
+        private static final List<ExportedMethod> METHODS = Collections.<ExportedMethod>singletonList(
+                new ExportedMethod("tapped", new Type[] { int.class, ExportedMethod.parameterized(List.class, Typed.Item.class) },
+                        false, false, "MAIN") {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void invoke(Object target, Object[] arguments) throws Exception {
+                        ((Bound)target).tapped((Integer)arguments[0], (List)arguments[1]);
+                    }
+                });
+
+        @Override
+        public String javascriptStubs(String interfaceName) {
+            return interfaceName + " = { };\n";
+        }
+
+        @Override
+        public List<ExportedMethod> exportedMethods() {
+            return METHODS;
+        }
+
+        @Override
+        public String dispatch() {
+            return null;
+        }
+    }
+
+    private final List<Runnable> mHeld = new ArrayList<>();
+    private final Executor mHolding = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            synchronized (mHeld) {
+                mHeld.add(command);
+            }
+        }
+    };
+    private final Executor mImmediate = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            Thread thread = new Thread(command, "main");
+            thread.start();
+        }
+    };
+
+    public void testStubsPointAtDispatcher() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        String stubs = dispatcher.register(new Exported(), "page", Dispatch.BACKGROUND);
+
+        // method IDs go in the order reflection finds them.
+        assertTrue(stubs.matches("(?s).*page\\.scrolled = function\\(arg0, arg1, arg2\\) \\{ __bridgeDispatch\\.invoke\\([01], " +
+                "valueToBridgeString\\(\\[Number\\(arg0\\), Boolean\\(arg1\\), valueToBridgeString\\(arg2\\)\\]\\)\\); \\};\n.*"));
+        assertTrue(stubs.matches("(?s).*page\\.updated = function\\(\\) \\{ __bridgeDispatch\\.invoke\\([01], " +
+                "valueToBridgeString\\(\\[argumentsToBridgeString\\(arguments\\)\\]\\)\\); \\};\n.*"));
+        // javascript can't wait on another thread for a value.
+        assertFalse(stubs.contains("count"));
+        assertFalse(stubs.contains("direct"));
+
+        // the method's own annotation wins.
+        stubs = dispatcher.register(new Exported(), "other", Dispatch.DIRECT);
+        assertTrue(stubs.contains("other.scrolled = function"));
+        assertFalse(stubs.contains("updated"));
+    }
+
+    public void testThrowingHandlerDoesntEscape() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        dispatcher.setBackgroundExecutor(mImmediate);
+        dispatcher.setQueueLimit(1);
+        Throwing throwing = new Throwing();
+        dispatcher.register(throwing, "page", null);
+
+        // on a real dispatch thread this would have been uncaught, and killed the process.
+        dispatcher.invoke(0, "{\"__rawValue\": []}");
+        dispatcher.invoke(0, "{\"__rawValue\": []}");
+
+        // and its place in the queue was given back.
+        assertEquals(2, throwing.mCalls.get());
+        assertEquals(0, dispatcher.droppedCount());
+        dispatcher.shutdown();
+    }
+
+    public void testCallsAfterShutdownAreDropped() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        Throwing throwing = new Throwing();
+        dispatcher.register(throwing, "page", null);
+        dispatcher.shutdown();
+
+        // rather than starting up a pool nobody's going to shut down.
+        dispatcher.invoke(0, "{\"__rawValue\": []}");
+        Thread.sleep(50);
+        assertEquals(0, throwing.mCalls.get());
+    }
+
+    public void testArgumentsArriveOnTarget() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        Exported exported = new Exported();
+        dispatcher.register(exported, "page", null);
+
+        dispatcher.invoke(0, "{\"__rawValue\": [12, true, \"{\\\"__rawValue\\\": \\\"hi\\\"}\"]}");
+
+        for (int i = 0; i < 100 && exported.mCalled.get() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("12 true hi on main", exported.mCalled.get());
+        dispatcher.shutdown();
+    }
+
+    public void testGeneratedBinding() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        Bound bound = new Bound();
+        String stubs = dispatcher.register(bound, "page", null);
+
+        assertEquals("page.tapped = function(arg0, arg1) { __bridgeDispatch.invoke(0, " +
+                "valueToBridgeString([Number(arg0), arg1])); };\n", stubs);
+
+        dispatcher.invoke(0, "{\"__rawValue\": [4, [{\"sku\": \"A-1\", \"quantity\": 1}]]}");
+        for (int i = 0; i < 100 && bound.mCalled.get() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("4 A-1 on main", bound.mCalled.get());
+        dispatcher.shutdown();
+    }
+
+    public void testObjectParameters() throws Exception {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        Typed typed = new Typed();
+        String stubs = dispatcher.register(typed, "cart", null);
+
+        // objects go into the bridge string as they are.
+        assertEquals("cart.added = function(arg0, arg1) { __bridgeDispatch.invoke(0, " +
+                "valueToBridgeString([arg0, valueToBridgeString(arg1)])); };\n", stubs);
+
+        // still DIRECT, so it's run right away.
+        dispatcher.invoke(0, "{\"__rawValue\": [{\"sku\": \"A-1\", \"quantity\": 3}, \"{\\\"__rawValue\\\": \\\"gift\\\"}\"]}");
+        assertEquals("A-1", typed.mItem.sku);
+        assertEquals(3, typed.mItem.quantity);
+        assertEquals("gift", typed.mNote);
+    }
+
+    public void testSlowHandlersDontHoldUpTheBridge() throws Exception {
+        long direct = timeSlowCalls(null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        long dispatched = timeSlowCalls(pool);
+        pool.shutdown();
+
+        Log.i(TAG, String.format("%d calls taking %d ms each, JavaBridge thread busy for: direct %d ms, background %d ms",
+                SLOW_CALLS, SLOW_CALL_MILLIS, direct, dispatched));
+        assertTrue(direct >= SLOW_CALLS * SLOW_CALL_MILLIS);
+        assertTrue(dispatched < direct / 4);
+    }
+
+    public void testDropWhenFull() throws Exception {
+        BridgeDispatcher dispatcher = holdingDispatcher(DispatchOverflow.DROP);
+
+        for (int i = 0; i < 3; i++) {
+            dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+        }
+
+        assertEquals(2, mHeld.size());
+        assertEquals(1, dispatcher.droppedCount());
+    }
+
+    public void testRunDirectWhenFull() throws Exception {
+        Slow slow = new Slow();
+        BridgeDispatcher dispatcher = holdingDispatcher(DispatchOverflow.RUN_DIRECT, slow);
+
+        for (int i = 0; i < 3; i++) {
+            dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+        }
+
+        assertEquals(2, mHeld.size());
+        assertEquals(SLOW_CALLS - 1, slow.mFinished.getCount());
+        assertEquals(0, dispatcher.droppedCount());
+    }
+
+    public void testMainCallsNeverRunDirect() throws Exception {
+        Slow slow = new Slow();
+        final BridgeDispatcher dispatcher = new BridgeDispatcher(mHolding);
+        dispatcher.setQueueLimit(2);
+        dispatcher.setOverflow(DispatchOverflow.RUN_DIRECT);
+        dispatcher.register(slow, "slow", Dispatch.MAIN);
+        dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+        dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread javaBridge = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+                queued.countDown();
+            }
+        });
+        javaBridge.start();
+
+        // waits for the main thread rather than running there and then.
+        assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(SLOW_CALLS, slow.mFinished.getCount());
+        runHeld();
+        assertTrue(queued.await(1, TimeUnit.SECONDS));
+        assertEquals(2, mHeld.size());
+        assertEquals(SLOW_CALLS - 1, slow.mFinished.getCount());
+    }
+
+    public void testBlockWhenFull() throws Exception {
+        final BridgeDispatcher dispatcher = holdingDispatcher(DispatchOverflow.BLOCK);
+        dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+        dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread javaBridge = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.invoke(0, "{\"__rawValue\": [\"\"]}");
+                queued.countDown();
+            }
+        });
+        javaBridge.start();
+
+        // waits for room.
+        assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+        runHeld();
+        assertTrue(queued.await(1, TimeUnit.SECONDS));
+        assertEquals(2, mHeld.size());
+        assertEquals(0, dispatcher.droppedCount());
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    /*
+    Times how long the calling thread, standing in for the JavaBridge thread, is busy making calls
+    to a slow handler.  A null executor runs them directly.
+     */
+    private long timeSlowCalls(Executor executor) throws Exception {
+        Slow slow = new Slow();
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        dispatcher.setBackgroundExecutor(executor);
+        dispatcher.register(slow, "slow", Dispatch.BACKGROUND);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SLOW_CALLS; i++) {
+            if (executor == null) {
+                slow.save("{\"__rawValue\": " + i + "}");
+            } else {
+                dispatcher.invoke(0, "{\"__rawValue\": [\"{\\\"__rawValue\\\": " + i + "}\"]}");
+            }
+        }
+        long busy = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(slow.mFinished.await(5, TimeUnit.SECONDS));
+        return busy;
+    }
+
+    private BridgeDispatcher holdingDispatcher(DispatchOverflow overflow) {
+        return holdingDispatcher(overflow, new Slow());
+    }
+
+    private BridgeDispatcher holdingDispatcher(DispatchOverflow overflow, Slow slow) {
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        dispatcher.setBackgroundExecutor(mHolding);
+        dispatcher.setQueueLimit(2);
+        dispatcher.setOverflow(overflow);
+        dispatcher.register(slow, "slow", Dispatch.BACKGROUND);
+        return dispatcher;
+    }
+
+    private void runHeld() {
+        Runnable held;
+        synchronized (mHeld) {
+            held = mHeld.remove(0);
+        }
+        held.run();
+    }
+}
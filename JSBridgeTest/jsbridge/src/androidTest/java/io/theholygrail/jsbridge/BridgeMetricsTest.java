@@ -0,0 +1,102 @@
+package io.theholygrail.jsbridge;
+
+import android.webkit.JavascriptInterface;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Checks what gets reported to a BridgeMetrics listener, and that BridgeStats adds it up.
+ */
+public class BridgeMetricsTest extends TestCase {
+    public static class Exported {
+        @JavascriptInterface
+        public void tapped(String where) {
+        }
+
+        @JavascriptInterface
+        public String name() {
+            return "exported";
+        }
+    }
+
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        BridgeMetrics.setListener(null);
+        super.tearDown();
+    }
+
+    public void testHistogramPercentiles() throws Exception {
+        BridgeStats.Histogram histogram = new BridgeStats.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(100000, histogram.max());
+        assertEquals(50500.0, histogram.mean(), 0.001);
+        // within a factor of two either way.
+        long median = histogram.percentile(0.5);
+        assertTrue(median >= 50000 && median < 100000);
+        assertEquals(100000, histogram.percentile(1.0));
+        assertEquals(0, new BridgeStats.Histogram().percentile(0.5));
+    }
+
+    public void testDecodingIsMeasured() throws Exception {
+        BridgeStats stats = new BridgeStats();
+        BridgeMetrics.setListener(stats);
+
+        String json = "{\"__rawValue\": {\"a\": [1, 2, 3]}}";
+        new JSValue(json);
+        JSValue.lazy(json);
+
+        assertEquals(2, stats.decodeLength().count());
+        assertEquals(json.length(), stats.decodeLength().max());
+
+        BridgeMetrics.setListener(null);
+        new JSValue(json);
+        assertEquals(2, stats.decodeLength().count());
+    }
+
+    public void testDirectCallsAreTimedByTheirStubs() throws Exception {
+        BridgeStats stats = new BridgeStats();
+        BridgeMetrics.setListener(stats);
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+
+        // WebView keeps calling them, measuring doesn't move them here.
+        assertNull(dispatcher.register(new Exported(), "page", null));
+
+        // what __bridgeTimed() does around each call, methods returning values included.
+        dispatcher.begin("page", "tapped");
+        dispatcher.end();
+        dispatcher.begin("page", "name");
+        dispatcher.end();
+        // an end() without a begin() isn't counted.
+        dispatcher.end();
+
+        assertEquals(1, stats.calls().get("page.tapped").count());
+        assertEquals(1, stats.calls().get("page.name").count());
+    }
+
+    public void testPendingResultsPeak() throws Exception {
+        BridgeStats stats = new BridgeStats();
+        stats.onPendingResults(1);
+        stats.onPendingResults(3);
+        stats.onPendingResults(0);
+
+        assertEquals(0, stats.pendingResults());
+        assertEquals(3, stats.peakPendingResults());
+
+        stats.onFunctionCacheSize(4, 12);
+        assertEquals(12, stats.functionCacheSize(4));
+        assertEquals(0, stats.functionCacheSize(5));
+    }
+}
@@ -0,0 +1,69 @@
+package io.theholygrail.jsbridge;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Checks the bridge runtime comes out of the asset minified, is only read once, and what setting
+ * up the bridge in a web view costs.
+ */
+public class BridgeRuntimeTest extends InstrumentationTestCase {
+    private static final String TAG = "BridgeRuntimeTest";
+
+    public void testRuntimeIsMinifiedAsset() throws Exception {
+        String runtime = BridgeRuntime.runtime(getInstrumentation().getTargetContext());
+
+        assertTrue(runtime.contains("valueToBridgeString = function("));
+        assertTrue(runtime.contains("__bridgeCall = function("));
+        for (String line : runtime.split("\n")) {
+            assertFalse(line, line.startsWith(" ") || line.startsWith("//") || line.isEmpty());
+        }
+    }
+
+    public void testReadOncePerProcess() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        assertSame(BridgeRuntime.runtime(context), BridgeRuntime.runtime(context));
+
+        // settings go in front, in the same script.
+        String script = BridgeRuntime.script(context, 3, 100, false);
+        assertTrue(script.startsWith("__bridgeID = 3, __functionIDBase = 12884901888, __functionIDLimit = 100, __bridgeSendsFunctionSource = false, __bridgeTiming = null;\n"));
+        assertTrue(script.endsWith(BridgeRuntime.runtime(context)));
+    }
+
+    public void testTimingFollowsMetrics() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        assertEquals("__bridgeTiming = null;", BridgeRuntime.timingScript());
+
+        BridgeMetrics.setListener(new BridgeMetrics.Listener() { });
+        try {
+            String timing = "__bridgeTiming = (typeof __bridgeDispatch !== 'undefined' ? __bridgeDispatch : null)";
+            assertEquals(timing + ";", BridgeRuntime.timingScript());
+            assertTrue(BridgeRuntime.script(context, 3, 100, false).contains(", " + timing + ";\n"));
+        } finally {
+            BridgeMetrics.setListener(null);
+        }
+        assertEquals("__bridgeTiming = null;", BridgeRuntime.timingScript());
+    }
+
+    public void testWebViewSetupCost() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+        final long[] nanos = new long[2];
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < nanos.length; i++) {
+                    JSWebView webView = new JSWebView(context);
+                    long start = System.nanoTime();
+                    webView.addJavascriptInterface(new Object(), "runtimeTest");
+                    nanos[i] = System.nanoTime() - start;
+                    webView.destroy();
+                }
+            }
+        });
+
+        Log.i(TAG, String.format("bridge setup: %.2f ms for the first web view, %.2f ms for the next",
+                nanos[0] / 1000000.0, nanos[1] / 1000000.0));
+    }
+}
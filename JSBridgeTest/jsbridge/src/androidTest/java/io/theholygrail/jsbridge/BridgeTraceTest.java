@@ -0,0 +1,64 @@
+package io.theholygrail.jsbridge;
+
+import android.webkit.JavascriptInterface;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Checks tracing can be switched on and off, and what changes while it's on.
+ */
+public class BridgeTraceTest extends TestCase {
+    public static class Exported {
+        @JavascriptInterface
+        public void tapped(String where) {
+        }
+    }
+
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        BridgeTrace.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testSwitchesAtRuntime() throws Exception {
+        assertFalse(BridgeTrace.isEnabled());
+        BridgeTrace.setEnabled(true);
+        assertTrue(BridgeTrace.isEnabled());
+
+        // values come out the same either way.
+        String json = "{\"__rawValue\": {\"a\": [1, 2, 3]}}";
+        JSValue traced = new JSValue(json);
+        BridgeTrace.setEnabled(false);
+        JSValue untraced = new JSValue(json);
+
+        assertEquals(untraced.javascriptStringValue(), traced.javascriptStringValue());
+    }
+
+    public void testCallsAreTimedInThePage() throws Exception {
+        int first = BridgeTrace.nextCallID();
+        int second = BridgeTrace.nextCallID();
+        assertTrue(second > first);
+
+        assertEquals("__bridgeTrace(3, function() { return (f()); })", BridgeTrace.timedCall(3, "f()"));
+    }
+
+    public void testDirectCallsStayDirectWhileTracing() throws Exception {
+        BridgeTrace.setEnabled(true);
+        BridgeDispatcher dispatcher = new BridgeDispatcher(mMainExecutor);
+        assertNull(dispatcher.register(new Exported(), "page", null));
+
+        // a section started by the stub is still ended after tracing is turned off.
+        dispatcher.begin("page", "tapped");
+        BridgeTrace.setEnabled(false);
+        dispatcher.end();
+    }
+}
@@ -0,0 +1,45 @@
+package io.theholygrail.jsbridge;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks the watchdog times out the JSCalls that never come back.
+ */
+public class CallWatchdogTest extends TestCase {
+    public void testWatchdogReclaimsStalledCalls() throws Exception {
+        CallWatchdog watchdog = new CallWatchdog(new Handler(Looper.getMainLooper()));
+        JSCall stalled = new JSCall(TimeUnit.MILLISECONDS.toNanos(50));
+        JSCall waiting = new JSCall(TimeUnit.SECONDS.toNanos(60));
+        JSCall forever = new JSCall(0);
+
+        watchdog.watch(stalled);
+        watchdog.watch(waiting);
+        watchdog.watch(forever);
+        // calls without a deadline don't need watching.
+        assertEquals(2, watchdog.size());
+
+        long nextDeadline = watchdog.sweep(stalled.deadlineNanos());
+
+        assertEquals(waiting.deadlineNanos(), nextDeadline);
+        assertEquals(1, watchdog.size());
+        assertTrue(stalled.isDone());
+        assertFalse(waiting.isDone());
+        try {
+            stalled.get();
+            fail("expected the call to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        waiting.cancel(false);
+        watchdog.unwatch(waiting);
+        assertEquals(0, watchdog.size());
+    }
+}
@@ -0,0 +1,193 @@
+package io.theholygrail.jsbridge;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+/**
+ * Counts what decoding allocates with ART's allocation counters, which only exist on a device.
+ * What's decoded is checked in jsbridge-core, see JSValueDecoderTest and TypeAdaptersTest.
+ */
+public class DecodingAllocationTest extends TestCase {
+    private static final String TAG = "DecodingAllocationTest";
+    private static final String LINE = "{\"__rawValue\": {\"sku\": \"A-1\", \"quantity\": 2, \"price\": 4.5, " +
+            "\"notes\": [\"gift\", \"fragile\"]}}";
+
+    static class Line {
+        String sku;
+        int quantity;
+        double price;
+    }
+
+    public void testBenchmarkDecoding() throws Exception {
+        int[] recordCounts = { 1000, 4000 };
+
+        for (int count : recordCounts) {
+            String payload = generateRecords(count);
+
+            // warm up both paths.
+            for (int i = 0; i < 3; i++) {
+                decodeLegacy(payload);
+                new JSValue(payload);
+            }
+
+            int iterations = 10;
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                decodeLegacy(payload);
+            }
+            long legacyNanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            int legacyAllocs = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                new JSValue(payload);
+            }
+            long streamedNanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            int streamedAllocs = Debug.getThreadAllocCount();
+
+            // lazy decoding only touching a single field.
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                JSValue.lazy(payload).get("10.price");
+            }
+            long lazyNanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            int lazyAllocs = Debug.getThreadAllocCount();
+
+            Log.i(TAG, String.format("%d KB payload: lazy single field %.1f MB/s, %d allocs/call",
+                    payload.length() / 1024,
+                    megabytesPerSecond(payload.length() * iterations, lazyNanos), lazyAllocs / iterations));
+            Log.i(TAG, String.format("%d KB payload: legacy %.1f MB/s, %d allocs/call; streaming %.1f MB/s, %d allocs/call",
+                    payload.length() / 1024,
+                    megabytesPerSecond(payload.length() * iterations, legacyNanos), legacyAllocs / iterations,
+                    megabytesPerSecond(payload.length() * iterations, streamedNanos), streamedAllocs / iterations));
+        }
+    }
+
+    public void testAllocationsPerDecodedNode() throws Exception {
+        int count = 10000;
+        StringBuilder builder = new StringBuilder("{\"__rawValue\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            // numbers alone would be packed, this is about the cost of each JSValue.
+            builder.append(i % 2 == 0 ? "true" : "null");
+        }
+        builder.append("]}");
+        String payload = builder.toString();
+
+        // warm up.
+        new JSValue(payload);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        new JSValue(payload);
+        Debug.stopAllocCounting();
+        int allocs = Debug.getThreadAllocCount();
+
+        double allocsPerNode = allocs / (double)count;
+        Log.i(TAG, String.format("%d element array: %.2f allocs per decoded node", count, allocsPerNode));
+
+        // one JSValue per element, plus list growth.  Anything more means something like a
+        // Handler has crept back into JSValue.
+        assertTrue("too many allocations per node: " + allocsPerNode, allocsPerNode < 3.0);
+    }
+
+    public void testPackedSeriesAllocations() throws Exception {
+        int count = 50000;
+        StringBuilder builder = new StringBuilder("{\"__rawValue\": [");
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "" : ",").append(i * 0.25);
+        }
+        builder.append("]}");
+        String payload = builder.toString();
+
+        // warm up.
+        new JSValue(payload);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        JSValue series = new JSValue(payload);
+        long nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int allocs = Debug.getThreadAllocCount();
+
+        Log.i(TAG, String.format("%d point series: %d allocs, %.2f ms", count, allocs, nanos / 1000000.0));
+
+        assertEquals(count, series.doubleArrayValue().length);
+        assertEquals(payload.substring("{\"__rawValue\": ".length(), payload.length() - 1), series.javascriptStringValue());
+        // array growth, not one per point.
+        assertTrue("too many allocations: " + allocs, allocs < 100);
+    }
+
+    public void testTypeAdaptersAllocateLessThanTree() throws Exception {
+        // warm up, and work out the adapter.
+        for (int i = 0; i < 100; i++) {
+            JSValue.decode(LINE, Line.class);
+            new JSValue(LINE).decodeAs(Line.class);
+        }
+
+        int direct = countLineAllocations(true);
+        int tree = countLineAllocations(false);
+
+        Log.i(TAG, "line payload: " + direct + " allocs decoding directly, " + tree + " through a JSValue tree");
+        assertTrue(direct < tree);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static int countLineAllocations(boolean direct) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < 100; i++) {
+            if (direct) {
+                JSValue.decode(LINE, Line.class);
+            } else {
+                new JSValue(LINE).decodeAs(Line.class);
+            }
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    private static JSValue decodeLegacy(String payload) throws Exception {
+        JSONObject jsonObject = new JSONObject(payload);
+        return JSValue.decompose(jsonObject.get("__rawValue"));
+    }
+
+    private static double megabytesPerSecond(long chars, long nanos) {
+        return (chars / (1024.0 * 1024.0)) / (nanos / 1000000000.0);
+    }
+
+    private static String generateRecords(int count) {
+        StringBuilder builder = new StringBuilder("{\"__rawValue\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\": ").append(i)
+                    .append(", \"name\": \"Record \\\"").append(i).append("\\\"\"")
+                    .append(", \"price\": ").append(i * 1.25)
+                    .append(", \"active\": ").append(i % 2 == 0)
+                    .append(", \"tags\": [\"a\", \"b\", null]")
+                    .append(", \"owner\": {\"first\": \"Herbert\", \"age\": 22}}");
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package io.theholygrail.jsbridge;
+
+import android.webkit.JavascriptInterface;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the stubs built for classes without a generated binding.
+ */
+public class JSBindingsTest extends TestCase {
+    public static class Exported {
+        @JavascriptInterface
+        public void scrolled(int x, long y, double velocity, boolean settled, String extra) {
+        }
+
+        @JavascriptInterface
+        @PackedArguments
+        public void updated(String arguments) {
+        }
+
+        @JavascriptInterface
+        @PackedArguments
+        public void badlyPacked(String first, String second) {
+        }
+
+        @JavascriptInterface
+        public void unsupported(float value) {
+        }
+
+        public void notAnnotated(String value) {
+        }
+    }
+
+    public void testPrimitivesArePassedAsIs() throws Exception {
+        String stubs = JSBindings.forClass(Exported.class).javascriptStubs("page");
+
+        assertTrue(stubs.startsWith("page = { };\n(function(object, bridge, name) {\n"));
+        assertTrue(stubs.contains("object.scrolled = function(arg0, arg1, arg2, arg3, arg4) { return __bridgeTimed(name, 'scrolled', " +
+                "function() { return bridge().scrolled(Number(arg0), Number(arg1), Number(arg2), Boolean(arg3), " +
+                "valueToBridgeString(arg4)); }); };\n"));
+        // the Java object is only looked up once a stub is called.
+        assertTrue(stubs.endsWith("})(page, function() { return __page; }, 'page');\n"));
+        assertFalse(stubs.contains("unsupported"));
+        assertFalse(stubs.contains("notAnnotated"));
+    }
+
+    public void testStubsAreWrittenOnce() throws Exception {
+        String stubs = JSBindings.forClass(Exported.class).javascriptStubs("page");
+        String other = JSBindings.forClass(Exported.class).javascriptStubs("other");
+
+        // only the interface name differs.
+        assertEquals(stubs.replace("page", "other"), other);
+        assertNull(JSBindings.forClass(Exported.class).exportedMethods());
+    }
+
+    public void testPackedArguments() throws Exception {
+        String stubs = JSBindings.forClass(Exported.class).javascriptStubs("page");
+
+        assertTrue(stubs.contains("object.updated = function() { var args = arguments; return __bridgeTimed(name, 'updated', " +
+                "function() { return bridge().updated(argumentsToBridgeString(args)); }); };\n"));
+        assertFalse(stubs.contains("badlyPacked"));
+    }
+}
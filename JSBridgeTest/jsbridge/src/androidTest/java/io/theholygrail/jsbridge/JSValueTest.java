@@ -0,0 +1,99 @@
+package io.theholygrail.jsbridge;
+
+import android.os.Debug;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the typed and unboxed accessors.
+ */
+public class JSValueTest extends TestCase {
+    private static final String RECORD = "{\"__rawValue\": {\"x\": 12, \"y\": -4.5, \"big\": 8589934592, " +
+            "\"visible\": true, \"name\": \"Herbert\", \"nothing\": null, \"points\": [1, 2, 3], " +
+            "\"weights\": [0.5, 1.5], \"mixed\": [7, \"eight\", false]}}";
+
+    public void testTypes() throws Exception {
+        JSValue value = new JSValue(RECORD);
+
+        assertEquals(JSValue.Type.OBJECT, value.getType());
+        assertEquals(JSValue.Type.INTEGER, value.get("x").getType());
+        assertEquals(JSValue.Type.DOUBLE, value.get("y").getType());
+        assertEquals(JSValue.Type.LONG, value.get("big").getType());
+        assertEquals(JSValue.Type.BOOLEAN, value.get("visible").getType());
+        assertEquals(JSValue.Type.STRING, value.get("name").getType());
+        assertEquals(JSValue.Type.NULL, value.get("nothing").getType());
+        assertEquals(JSValue.Type.ARRAY, value.get("points").getType());
+        assertTrue(value.get("big").isNumber());
+    }
+
+    public void testBoxedAccessors() throws Exception {
+        JSValue value = new JSValue(RECORD);
+
+        assertEquals(Integer.valueOf(12), value.get("x").integerValue());
+        assertEquals(Double.valueOf(-4.5), value.get("y").doubleValue());
+        assertEquals(Boolean.TRUE, value.get("visible").booleanValue());
+        assertEquals("12", value.get("x").stringValue());
+        assertEquals("8589934592", value.get("big").stringValue());
+    }
+
+    public void testUnboxedAccessors() throws Exception {
+        JSValue value = new JSValue(RECORD);
+
+        assertEquals(12, value.getInt("x", -1));
+        assertEquals(-4, value.getInt("y", -1));
+        assertEquals(8589934592L, value.getLong("big", -1));
+        assertEquals(-4.5, value.getDouble("y", 0), 0);
+        assertTrue(value.getBoolean("visible", false));
+        assertEquals("Herbert", value.getString("name", null));
+
+        // defaults for anything missing or of the wrong kind.
+        assertEquals(-1, value.getInt("name", -1));
+        assertEquals(-1, value.getInt("nothing", -1));
+        assertEquals(-1, value.getInt("missing", -1));
+        assertTrue(value.getBoolean("x", true));
+        assertEquals("none", value.getString("x", "none"));
+
+        JSValue points = value.get("points");
+        assertEquals(2, points.getInt(1, -1));
+        assertEquals(3.0, points.getDouble(2, 0), 0);
+        assertEquals(-1, points.getInt(3, -1));
+        assertEquals(1.5, value.get("weights").getDouble(1, 0), 0);
+
+        JSValue mixed = value.get("mixed");
+        assertEquals(7, mixed.getInt(0, -1));
+        assertEquals("eight", mixed.getString(1, null));
+        assertFalse(mixed.getBoolean(2, true));
+        assertEquals(-1, mixed.getInt(1, -1));
+    }
+
+    public void testLazyAccessors() throws Exception {
+        JSValue value = JSValue.lazy(RECORD);
+
+        assertEquals(12, value.getInt("x", -1));
+        assertEquals(2, value.get("points").getInt(1, -1));
+        assertEquals("Herbert", value.getString("name", null));
+    }
+
+    public void testUnboxedReadsDontAllocate() throws Exception {
+        JSValue value = new JSValue(RECORD);
+        JSValue points = value.get("points");
+
+        // warm up.
+        long total = 0;
+        for (int i = 0; i < 100; i++) {
+            total += value.getInt("x", 0) + (long)value.getDouble("y", 0) + points.getInt(i % 3, 0);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < 10000; i++) {
+            total += value.getInt("x", 0) + (long)value.getDouble("y", 0) + points.getInt(i % 3, 0);
+            total += value.getBoolean("visible", false) ? 1 : 0;
+        }
+        Debug.stopAllocCounting();
+        int allocs = Debug.getThreadAllocCount();
+
+        assertTrue(total != 0);
+        assertTrue("reads allocated " + allocs + " times", allocs < 10);
+    }
+}
@@ -0,0 +1,334 @@
+package io.theholygrail.jsbridge;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.webkit.DownloadListener;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks web views are made ahead of time, recycled, reset and trimmed, and compares how long it
+ * takes to get a result back from a new page with and without the pool.
+ */
+public class JSWebViewPoolTest extends InstrumentationTestCase {
+    private static final String TAG = "JSWebViewPoolTest";
+    private static final String PAGE = "<html><head><title>pooled</title></head><body></body></html>";
+
+    public static class Exported {
+        @JavascriptInterface
+        public void ready(String state) {
+        }
+    }
+
+    private static final JSWebViewPool.Preparer PREPARER = new JSWebViewPool.Preparer() {
+        @Override
+        public void prepare(JSWebView webView) {
+            webView.addJavascriptInterface(new Exported(), "poolTest");
+        }
+    };
+
+    public void testReleasedWebViewsAreReused() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                JSWebViewPool pool = new JSWebViewPool(context(), 2, PREPARER);
+                JSWebView webView = pool.obtain(context());
+                assertEquals(0, pool.size());
+
+                pool.release(webView);
+                assertEquals(1, pool.size());
+                assertSame(webView, pool.obtain(context()));
+                pool.close();
+            }
+        });
+    }
+
+    public void testKeepsAtMostMaxSize() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                JSWebViewPool pool = new JSWebViewPool(context(), 2, PREPARER);
+                JSWebView[] webViews = { pool.obtain(context()), pool.obtain(context()), pool.obtain(context()) };
+                for (JSWebView webView : webViews) {
+                    pool.release(webView);
+                }
+
+                assertEquals(2, pool.size());
+                pool.close();
+                assertEquals(0, pool.size());
+            }
+        });
+    }
+
+    public void testTrimsUnderMemoryPressure() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                JSWebViewPool pool = new JSWebViewPool(context(), 3, PREPARER);
+                JSWebView[] webViews = { pool.obtain(context()), pool.obtain(context()), pool.obtain(context()) };
+                for (JSWebView webView : webViews) {
+                    pool.release(webView);
+                }
+
+                pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+                assertEquals(1, pool.size());
+                pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+                assertEquals(0, pool.size());
+                pool.close();
+            }
+        });
+    }
+
+    public void testReleaseForgetsPageAndInterfaces() throws Exception {
+        final AtomicReference<JSWebViewPool> pool = new AtomicReference<>();
+        final AtomicReference<JSWebView> webView = new AtomicReference<>();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.set(new JSWebViewPool(context(), 1, PREPARER));
+                webView.set(pool.get().obtain(context()));
+                // the way a screen adds its own, holding on to the activity.
+                webView.get().addJavascriptInterface(new Exported(), "screen");
+            }
+        });
+        loadPage(webView.get());
+        assertEquals("object", typeOf(webView.get(), "screen"));
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.get().release(webView.get());
+            }
+        });
+
+        // the history is only cleared once the blank page has replaced ours.
+        final AtomicReference<Boolean> canGoBack = new AtomicReference<>(true);
+        for (int i = 0; i < 50 && canGoBack.get(); i++) {
+            getInstrumentation().waitForIdleSync();
+            Thread.sleep(20);
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    canGoBack.set(webView.get().canGoBack());
+                }
+            });
+        }
+        assertFalse(canGoBack.get());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertSame(webView.get(), pool.get().obtain(context()));
+            }
+        });
+        loadPage(webView.get());
+        assertEquals("undefined", typeOf(webView.get(), "screen"));
+        assertEquals("object", typeOf(webView.get(), "poolTest"));
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                webView.get().destroy();
+                pool.get().close();
+            }
+        });
+    }
+
+    public void testReleaseResetsSettings() throws Exception {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                JSWebViewPool pool = new JSWebViewPool(context(), 1, new JSWebViewPool.Preparer() {
+                    @Override
+                    public void prepare(JSWebView webView) {
+                        PREPARER.prepare(webView);
+                        // what the pool's owner sets is kept.
+                        webView.setFunctionCacheLimit(200);
+                    }
+                });
+                JSWebView webView = pool.obtain(context());
+                boolean usesEvaluateJavascript = webView.usesEvaluateJavascript();
+                Executor executor = new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                };
+
+                // the way a screen sets things up for itself.
+                webView.setResultExecutor(executor);
+                webView.setDispatchExecutor(executor);
+                webView.setDispatchQueueLimit(4);
+                webView.setDispatchOverflow(DispatchOverflow.DROP);
+                webView.setCallTimeout(1, TimeUnit.SECONDS);
+                webView.setUsesEvaluateJavascript(false);
+                webView.setFunctionCacheLimit(10);
+                webView.setSendsFunctionSource(false);
+                webView.setDownloadListener(new DownloadListener() {
+                    @Override
+                    public void onDownloadStart(String url, String userAgent, String contentDisposition, String mimetype, long contentLength) {
+                    }
+                });
+
+                pool.release(webView);
+                assertSame(webView, pool.obtain(context()));
+
+                assertNull(webView.resultExecutor());
+                assertNull(webView.dispatchExecutor());
+                assertEquals(64, webView.dispatchQueueLimit());
+                assertEquals(DispatchOverflow.BLOCK, webView.dispatchOverflow());
+                assertEquals(TimeUnit.SECONDS.toNanos(30), webView.callTimeoutNanos());
+                assertEquals(usesEvaluateJavascript, webView.usesEvaluateJavascript());
+                assertEquals(200, webView.functionCacheLimit());
+                assertTrue(webView.sendsFunctionSource());
+                assertNull(webView.downloadListener());
+
+                webView.destroy();
+                pool.close();
+            }
+        });
+    }
+
+    public void testPrewarmsWhenIdle() throws Exception {
+        final AtomicReference<JSWebViewPool> pool = new AtomicReference<>();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.set(new JSWebViewPool(context(), 4, PREPARER));
+                pool.get().prewarm(2);
+                // nothing's made until the main thread has nothing else to do.
+                assertEquals(0, pool.get().size());
+            }
+        });
+
+        waitForPool(pool.get(), 2);
+        assertEquals(2, pool.get().size());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.get().close();
+            }
+        });
+    }
+
+    public void testTimeToFirstBridgeCall() throws Exception {
+        // the first web view in the process pays for starting the engine, so it doesn't count.
+        timeToFirstCall(null);
+        long created = timeToFirstCall(null);
+
+        final AtomicReference<JSWebViewPool> pool = new AtomicReference<>();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.set(new JSWebViewPool(context(), 1, PREPARER));
+                pool.get().prewarm(1);
+            }
+        });
+        waitForPool(pool.get(), 1);
+        long pooled = timeToFirstCall(pool.get());
+
+        Log.i(TAG, String.format("time to first bridge call: %.1f ms creating the web view, %.1f ms from the pool",
+                created / 1000000.0, pooled / 1000000.0));
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool.get().close();
+            }
+        });
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private Context context() {
+        return getInstrumentation().getTargetContext();
+    }
+
+    private void runOnMainSync(Runnable runnable) {
+        getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private void waitForPool(JSWebViewPool pool, int size) throws Exception {
+        // one web view is made per idle pass.
+        for (int i = 0; i < 50 && pool.size() < size; i++) {
+            getInstrumentation().waitForIdleSync();
+            Thread.sleep(20);
+        }
+    }
+
+    private void loadPage(final JSWebView webView) throws Exception {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                webView.setWebViewClient(new WebViewClient() {
+                    @Override
+                    public void onPageFinished(WebView view, String url) {
+                        loaded.countDown();
+                    }
+                });
+                webView.loadDataWithBaseURL("http://localhost/", PAGE, "text/html", "UTF-8", null);
+            }
+        });
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+    }
+
+    private static String typeOf(JSWebView webView, String name) throws Exception {
+        return webView.evaluateJavascriptAsync("typeof " + name).get(5, TimeUnit.SECONDS).stringValue();
+    }
+
+    /*
+    From asking for a web view to having a result back from javascript in the page it loads.  A
+    null pool makes the web view and adds its interfaces the way a screen would without one.
+     */
+    private long timeToFirstCall(final JSWebViewPool pool) throws Exception {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicReference<JSWebView> webView = new AtomicReference<>();
+        final long start = System.nanoTime();
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (pool != null) {
+                    webView.set(pool.obtain(context()));
+                } else {
+                    webView.set(new JSWebView(context()));
+                    PREPARER.prepare(webView.get());
+                }
+                webView.get().setWebViewClient(new WebViewClient() {
+                    @Override
+                    public void onPageFinished(WebView view, String url) {
+                        loaded.countDown();
+                    }
+                });
+                webView.get().loadDataWithBaseURL("http://localhost/", PAGE, "text/html", "UTF-8", null);
+            }
+        });
+
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        JSValue title = webView.get().evaluateJavascriptAsync("document.title").get(5, TimeUnit.SECONDS);
+        long nanos = System.nanoTime() - start;
+        assertEquals("pooled", title.stringValue());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (pool != null) {
+                    pool.release(webView.get());
+                } else {
+                    webView.get().destroy();
+                }
+            }
+        });
+        return nanos;
+    }
+}
@@ -0,0 +1,226 @@
+package io.theholygrail.jsbridge;
+
+import android.os.Build;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares callFunction() round trip latency over evaluateJavascript() and javascript: urls, and
+ * checks batched scripts still run in order, async calls report errors and timeouts, and functions
+ * from a page that's gone can't call into the one that replaced it.
+ */
+public class JSWebViewTransportTest extends InstrumentationTestCase {
+    private static final String TAG = "JSWebViewTransportTest";
+
+    // JSWebView sets up the bridge once the page loads, these are stand-ins for functions the page
+    // passed to Java.
+    private static final String PAGE = "<html><head><script>" +
+            "function square(n) { return n * n; }\n" +
+            "function fails() { throw new Error('bad page'); }\n" +
+            "function stalls() { var end = Date.now() + 1000; while (Date.now() < end) { } return 1; }\n" +
+            "__order = [];\n" +
+            "</script></head><body></body></html>";
+
+    private JSWebView mWebView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mWebView = new JSWebView(getInstrumentation().getTargetContext());
+                // registers __bridgeSupport for the page we're about to load, and sets up the bridge
+                // in it once it has.
+                mWebView.addJavascriptInterface(new Object(), "transportTest");
+            }
+        });
+        loadPage();
+        // after the runtime, which has already gone over by the time onPageFinished() is called.
+        mWebView.executeJavascript("__functionCache[0] = square; __functionCache[1] = fails; __functionCache[2] = stalls;");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mWebView.destroy();
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testLegacyTransport() throws Exception {
+        mWebView.setUsesEvaluateJavascript(false);
+        assertEquals(Integer.valueOf(25), callSquare(5).integerValue());
+        logLatency("javascript: url", measureLatency(200));
+    }
+
+    public void testEvaluateJavascriptTransport() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+
+        mWebView.setUsesEvaluateJavascript(true);
+        assertEquals(Integer.valueOf(25), callSquare(5).integerValue());
+        logLatency("evaluateJavascript", measureLatency(200));
+    }
+
+    public void testBatchedScriptsRunInOrder() throws Exception {
+        int count = 500;
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            mWebView.executeJavascript("__order.push(" + i + ");");
+            // one bad script shouldn't take the rest of the batch down with it.
+            if (i == count / 2) {
+                mWebView.executeJavascript("throw new Error('expected');");
+                mWebView.executeJavascript("this is not javascript");
+            }
+            expected.append(i == 0 ? "" : ",").append(i);
+        }
+
+        final CountDownLatch returned = new CountDownLatch(1);
+        final AtomicReference<String> order = new AtomicReference<>();
+        // results are only evaluated once everything submitted before them has run, and before
+        // anything submitted after.
+        mWebView.evaluateJavascriptForResult("__order.join(',')", new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                order.set(new JSValue(value).stringValue());
+                returned.countDown();
+            }
+        });
+        mWebView.executeJavascript("__order.push('late');");
+
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        assertEquals(expected.toString(), order.get());
+    }
+
+    public void testScriptDeclarationsAreGlobal() throws Exception {
+        mWebView.executeJavascript("function __declared() { return 'declared'; }");
+        mWebView.executeJavascript("var __assigned = __declared();");
+
+        assertEquals("declared", mWebView.evaluateJavascriptAsync("__assigned").get(5, TimeUnit.SECONDS).stringValue());
+    }
+
+    public void testThrownErrorFailsCall() throws Exception {
+        JSCall call = function(1).callFunctionAsync(mWebView, new Object[0], 5, TimeUnit.SECONDS);
+
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            fail("expected the call to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JSException);
+            assertEquals("bad page", e.getCause().getMessage());
+        }
+    }
+
+    public void testStalledCallTimesOut() throws Exception {
+        JSCall call = function(2).callFunctionAsync(mWebView, new Object[0], 100, TimeUnit.MILLISECONDS);
+
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            fail("expected the call to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // the bridge is still usable once the page catches up.
+        assertEquals(Integer.valueOf(25), callSquare(5).integerValue());
+    }
+
+    public void testStaleFunctionFailsAfterNavigating() throws Exception {
+        JSValue stale = mWebView.evaluateJavascriptAsync("function() { return 'old page'; }").get(5, TimeUnit.SECONDS);
+        assertTrue(stale.isFunction());
+
+        loadPage();
+        JSValue current = mWebView.evaluateJavascriptAsync("function() { return 'new page'; }").get(5, TimeUnit.SECONDS);
+        assertFalse(current.functionIDValue().equals(stale.functionIDValue()));
+
+        try {
+            stale.callFunctionAsync(mWebView, new Object[0], 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            fail("expected the old page's function to be gone");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JSException);
+        }
+
+        // letting go of the old one doesn't touch anything in the new page.
+        stale.release();
+        assertEquals("new page", current.callFunctionAsync(mWebView, new Object[0], 5, TimeUnit.SECONDS)
+                .get(5, TimeUnit.SECONDS).stringValue());
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private void loadPage() throws Exception {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mWebView.setWebViewClient(new WebViewClient() {
+                    @Override
+                    public void onPageFinished(WebView view, String url) {
+                        loaded.countDown();
+                    }
+                });
+                mWebView.loadDataWithBaseURL("http://localhost/", PAGE, "text/html", "UTF-8", null);
+            }
+        });
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+    }
+
+    private JSValue callSquare(int n) throws Exception {
+        final CountDownLatch returned = new CountDownLatch(1);
+        final AtomicReference<JSValue> result = new AtomicReference<>();
+
+        mWebView.callFunction(function(0), new Object[] { n }, new ValueCallback<JSValue>() {
+            @Override
+            public void onReceiveValue(JSValue value) {
+                result.set(value);
+                returned.countDown();
+            }
+        });
+
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static JSValue function(int id) {
+        return new JSValue("{\"__rawValue\": \"function:" + id + ":ZnVuY3Rpb24oKSB7fQ==\"}");
+    }
+
+    private long[] measureLatency(int calls) throws Exception {
+        // warm up.
+        for (int i = 0; i < 20; i++) {
+            callSquare(i);
+        }
+
+        long[] latencies = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            callSquare(i);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void logLatency(String transport, long[] sortedLatencies) {
+        Log.i(TAG, String.format("%s: p50 %.2f ms, p90 %.2f ms, max %.2f ms", transport,
+                sortedLatencies[sortedLatencies.length / 2] / 1000000.0,
+                sortedLatencies[sortedLatencies.length * 9 / 10] / 1000000.0,
+                sortedLatencies[sortedLatencies.length - 1] / 1000000.0));
+    }
+}
@@ -0,0 +1,68 @@
+package io.theholygrail.jsbridge;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+import java.util.Arrays;
+
+/**
+ * Checks JsonReaderCodec decodes bridge strings the same as the streaming decoder.  It reads with
+ * android.util.JsonReader, so unlike the other codecs it's only checked on a device.
+ */
+public class JsonReaderCodecTest extends TestCase {
+    private static final String RECORDS = "{\"__rawValue\": [{\"id\": 0, \"name\": \"Record \\\"0\\\"\", \"price\": 0.0, " +
+            "\"tags\": [\"a\", \"b\", null], \"owner\": {\"first\": \"Herbert\", \"age\": 22}}, " +
+            "{\"id\": 1, \"name\": \"Record \\\"1\\\"\", \"price\": 1.25, \"tags\": [], \"owner\": null}]}";
+
+    private final JSValueCodec mCodec = new JsonReaderCodec();
+
+    @Override
+    protected void tearDown() throws Exception {
+        JSValueCodecs.setCodec(null);
+        super.tearDown();
+    }
+
+    public void testAgreesWithStreaming() throws Exception {
+        String expected = JSValueCodecs.STREAMING.decode(RECORDS).javascriptStringValue();
+
+        JSValueCodecs.setCodec(mCodec);
+        JSValue value = new JSValue(RECORDS);
+
+        assertEquals(Double.valueOf(1.25), value.get("1.price").doubleValue());
+        assertEquals("Record \"0\"", value.get("0.name").stringValue());
+        assertTrue(value.get("0.tags.2").isNull());
+        assertEquals(expected, value.javascriptStringValue());
+    }
+
+    public void testNumberTypes() throws Exception {
+        JSValue value = mCodec.decode("{\"__rawValue\": [25, 8589934592, 2.5, \"function:3:\"]}");
+
+        assertEquals(JSValue.Type.INTEGER, value.get("0").getType());
+        assertEquals(JSValue.Type.LONG, value.get("1").getType());
+        assertEquals(JSValue.Type.DOUBLE, value.get("2").getType());
+        assertTrue(value.get("3").isFunction());
+    }
+
+    public void testPacksNumbers() throws Exception {
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 },
+                mCodec.decode("{\"__rawValue\": [1, 2, 3]}").intArrayValue()));
+        assertTrue(Arrays.equals(new double[] { 1, 2.5 },
+                mCodec.decode("{\"__rawValue\": [1, 2.5]}").doubleArrayValue()));
+        assertEquals(0, mCodec.decode("{\"__rawValue\": []}").listValue().size());
+    }
+
+    public void testMalformedStrings() throws Exception {
+        for (String payload : new String[] { "{\"__rawValue\": [1, 2,", "{\"other\": 1}" }) {
+            try {
+                mCodec.decode(payload);
+                fail("Decoded " + payload);
+            } catch (JSONException e) {
+                // expected.
+            }
+        }
+
+        JSValueCodecs.setCodec(mCodec);
+        assertFalse(new JSValue("{\"__rawValue\": [1, 2,").isValid());
+    }
+}
@@ -0,0 +1,64 @@
+package io.theholygrail.jsbridge;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Looper;
+import android.os.Trace;
+import android.webkit.JavascriptInterface;
+
+import java.lang.reflect.Method;
+
+/**
+ * The bridge on Android: results arrive on the main thread, trace sections go to
+ * android.os.Trace, and only @JavascriptInterface methods are exported.
+ */
+final class AndroidPlatform extends BridgePlatform {
+    // section names longer than this make Trace throw.
+    private static final int MAX_SECTION_LENGTH = 127;
+
+    // made by BridgePlatform, by name.
+    AndroidPlatform() {
+    }
+
+    @Override
+    boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    @Override
+    void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            traceBegin(name);
+        }
+    }
+
+    @Override
+    void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            traceEnd();
+        }
+    }
+
+    @Override
+    void instrumentationChanged() {
+        JSWebView.instrumentationChanged();
+    }
+
+    @Override
+    boolean isExported(Method method) {
+        return method.isAnnotationPresent(JavascriptInterface.class);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    // kept apart so Trace is only touched on Jelly Bean MR2 and later.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void traceBegin(String name) {
+        Trace.beginSection(name.length() > MAX_SECTION_LENGTH ? name.substring(0, MAX_SECTION_LENGTH) : name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void traceEnd() {
+        Trace.endSection();
+    }
+}
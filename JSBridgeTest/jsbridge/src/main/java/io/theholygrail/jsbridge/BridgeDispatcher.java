@@ -0,0 +1,583 @@
+package io.theholygrail.jsbridge;
+
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+
+import org.json.JSONException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs exported methods somewhere other than the JavaBridge thread.
+ *
+ * Methods that aren't DIRECT have their stubs pointed at invoke() instead, which gets an ID for
+ * the method and its arguments in one bridge string.  invoke() only queues the call on the
+ * method's executor, so javascript carries on right away.  Each executor only takes so many
+ * calls at a time, past that the DispatchOverflow policy decides what happens.
+ *
+ * Methods taking objects, ie: a class decoded with TypeAdapters, always come through here since
+ * WebView can't pass them, DIRECT ones are just run right away.  The rest stay with WebView, and
+ * while there's a BridgeMetrics listener or BridgeTrace is on their stubs call begin() and end()
+ * around each call, so they're counted and traced without changing how they're made.
+ *
+ * Registered with the page as __bridgeDispatch.
+ */
+final class BridgeDispatcher {
+    static final String INTERFACE_NAME = "__bridgeDispatch";
+
+    private static final String TAG = "BridgeDispatcher";
+    private static final int DEFAULT_POOL_SIZE = 2;
+    private static final int DEFAULT_QUEUE_LIMIT = 64;
+    // the exported methods of classes without a generated binding, found once.
+    private static final ConcurrentHashMap<Class<?>, List<ExportedMethod>> sReflectedMethods = new ConcurrentHashMap<>();
+
+    private final List<Target> mTargets = new CopyOnWriteArrayList<>();
+    private final Lane mMainLane;
+    private final Lane mBackgroundLane;
+    private volatile int mQueueLimit = DEFAULT_QUEUE_LIMIT;
+    private volatile DispatchOverflow mOverflow = DispatchOverflow.BLOCK;
+    // only set when we made the background pool ourselves, so we know to shut it down.
+    private ExecutorService mDefaultPool = null;
+    // once the web view is destroyed, calls still on their way are dropped.
+    private volatile boolean mShutdown = false;
+    // the call each JavaBridge thread is timing between begin() and end().
+    private final ThreadLocal<Timing> mTiming = new ThreadLocal<Timing>() {
+        @Override
+        protected Timing initialValue() {
+            return new Timing();
+        }
+    };
+
+    BridgeDispatcher(Executor mainExecutor) {
+        // MAIN methods touch views, so they're never run on the JavaBridge thread.
+        mMainLane = new Lane(mainExecutor, false);
+        mBackgroundLane = new Lane(null, true);
+    }
+
+    /**
+     * Called by the stubs for dispatched methods.
+     */
+    @JavascriptInterface
+    public void invoke(int methodID, final String arguments) {
+        if (mShutdown || methodID < 0 || methodID >= mTargets.size()) {
+            return;
+        }
+
+        final Target target = mTargets.get(methodID);
+        if (target.mDispatch == Dispatch.DIRECT) {
+            target.call(arguments);
+            return;
+        }
+
+        Lane lane = target.mDispatch == Dispatch.MAIN ? mMainLane : mBackgroundLane;
+        // arguments are decoded on the way in, so that's off the JavaBridge thread too.
+        lane.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    target.call(arguments);
+                } catch (RuntimeException e) {
+                    // WebView turns what a direct method throws into a javascript error, here
+                    // there's nobody to hand it to and it would take the whole app down.
+                    Log.e(TAG, target.mName + " threw", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by stubs for methods WebView runs itself, just before the call, while __bridgeTiming
+     * is set, see BridgeRuntime.timingScript().
+     */
+    @JavascriptInterface
+    public void begin(String interfaceName, String methodName) {
+        Timing timing = mTiming.get();
+        timing.mInterfaceName = interfaceName;
+        timing.mMethodName = methodName;
+        timing.mListener = BridgeMetrics.getListener();
+        timing.mTraced = BridgeTrace.isEnabled();
+        if (timing.mTraced) {
+            BridgeTrace.begin("jsbridge:" + interfaceName + "." + methodName);
+        }
+        timing.mStart = System.nanoTime();
+    }
+
+    /**
+     * Called just after the call begin() was for, even if it threw.  The time reported includes
+     * one trip from the page into Java and back, on top of the call's own.
+     */
+    @JavascriptInterface
+    public void end() {
+        long nanos = System.nanoTime();
+        Timing timing = mTiming.get();
+        if (timing.mInterfaceName == null) {
+            return;
+        }
+
+        if (timing.mListener != null) {
+            timing.mListener.onJavascriptCall(timing.mInterfaceName, timing.mMethodName, nanos - timing.mStart);
+        }
+        if (timing.mTraced) {
+            BridgeTrace.end();
+        }
+        timing.mInterfaceName = null;
+        timing.mListener = null;
+    }
+
+    /**
+     * Registers the methods of the given object that aren't DIRECT or take objects, and returns
+     * the script that points their stubs here.  Runs after the
+     * stubs from the object's JSBinding, so methods that stay DIRECT are left as they are.
+     * Returns null if there's nothing to dispatch.
+     *
+     * dispatch is what was passed to addJavascriptInterface(), or null to go by the class.
+     */
+    String register(Object object, String interfaceName, Dispatch dispatch) {
+        Class<?> cls = object.getClass();
+        // a generated binding already knows all of this, only fall back to reflection without one.
+        JSBinding binding = JSBindings.forClass(cls);
+        List<ExportedMethod> methods = binding.exportedMethods();
+        String classDispatch;
+        if (methods != null) {
+            classDispatch = binding.dispatch();
+        } else {
+            methods = reflectedMethods(cls);
+            DispatchOn annotation = cls.getAnnotation(DispatchOn.class);
+            classDispatch = annotation != null ? annotation.value().name() : null;
+        }
+        if (dispatch == null) {
+            dispatch = classDispatch != null ? Dispatch.valueOf(classDispatch) : Dispatch.DIRECT;
+        }
+
+        StringBuilder builder = null;
+        for (ExportedMethod method : methods) {
+            Dispatch methodTarget = method.dispatch() != null ? Dispatch.valueOf(method.dispatch()) : dispatch;
+            boolean takesObjects = JSBindings.hasObjectParameters(method.parameterClasses());
+            if (methodTarget == Dispatch.DIRECT && !takesObjects) {
+                continue;
+            }
+            if (method.returnsValue()) {
+                Log.w(TAG, interfaceName + "." + method.name() + (takesObjects ?
+                        "() returns a value, so it can't take objects." : "() returns a value, so it's run directly."));
+                continue;
+            }
+
+            Target target;
+            try {
+                target = new Target(object, interfaceName, method, methodTarget);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, interfaceName + "." + method.name() + "() can't be exported: " + e.getMessage());
+                continue;
+            }
+
+            int methodID;
+            synchronized (mTargets) {
+                methodID = mTargets.size();
+                mTargets.add(target);
+            }
+
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            appendStub(builder, interfaceName, method, methodID);
+        }
+
+        return builder != null ? builder.toString() : null;
+    }
+
+    /**
+     * The number of methods registered so far, see truncate().
+     */
+    int targetCount() {
+        return mTargets.size();
+    }
+
+    /**
+     * Drops every method registered after the first count, ie: interfaces added to a pooled web
+     * view since it was prepared.  Earlier methods keep their IDs.
+     */
+    void truncate(int count) {
+        synchronized (mTargets) {
+            while (mTargets.size() > count) {
+                mTargets.remove(mTargets.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Sets the executor BACKGROUND methods run on.  null goes back to the default pool.
+     */
+    void setBackgroundExecutor(Executor executor) {
+        mBackgroundLane.mExecutor = executor;
+    }
+
+    Executor backgroundExecutor() {
+        return mBackgroundLane.mExecutor;
+    }
+
+    void setQueueLimit(int queueLimit) {
+        if (queueLimit < 1) {
+            throw new IllegalArgumentException("queueLimit must be at least 1");
+        }
+        mQueueLimit = queueLimit;
+        // anything blocked might fit now.
+        mMainLane.wake();
+        mBackgroundLane.wake();
+    }
+
+    int queueLimit() {
+        return mQueueLimit;
+    }
+
+    void setOverflow(DispatchOverflow overflow) {
+        mOverflow = overflow;
+        mMainLane.wake();
+        mBackgroundLane.wake();
+    }
+
+    DispatchOverflow overflow() {
+        return mOverflow;
+    }
+
+    /**
+     * The number of calls dropped because their executor was full, or wouldn't take them.
+     */
+    int droppedCount() {
+        return mMainLane.mDropped.get() + mBackgroundLane.mDropped.get();
+    }
+
+    /**
+     * Lets go of the default pool, if there is one, and drops any calls that come in afterwards,
+     * ie: ones the JavaBridge thread delivers while the web view is being destroyed.
+     */
+    void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+            if (mDefaultPool != null) {
+                mDefaultPool.shutdown();
+                mDefaultPool = null;
+            }
+        }
+
+        // anything blocked waiting for room gives up.
+        mMainLane.wake();
+        mBackgroundLane.wake();
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    // null once we've been shut down.
+    private synchronized Executor defaultPool() {
+        if (mDefaultPool == null && !mShutdown) {
+            mDefaultPool = Executors.newFixedThreadPool(DEFAULT_POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "JSBridgeDispatch-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mDefaultPool;
+    }
+
+    private static List<ExportedMethod> reflectedMethods(Class<?> cls) {
+        List<ExportedMethod> result = sReflectedMethods.get(cls);
+
+        if (result == null) {
+            result = new ArrayList<>();
+            for (Method method : cls.getMethods()) {
+                if (!method.isAnnotationPresent(JavascriptInterface.class)) {
+                    continue;
+                }
+
+                boolean exportable = method.isAnnotationPresent(PackedArguments.class) ?
+                        JSBindings.isPackedSignature(method) :
+                        JSBindings.hasExportableParameters(method) || JSBindings.hasObjectParameters(method);
+                if (exportable) {
+                    result.add(new ReflectedMethod(method));
+                }
+            }
+
+            List<ExportedMethod> existing = sReflectedMethods.putIfAbsent(cls, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    /*
+    The stub puts what the direct stub would have passed into an array, ie:
+    __bridgeDispatch.invoke(3, valueToBridgeString([valueToBridgeString(arg0), Number(arg1)]))
+     */
+    private static void appendStub(StringBuilder builder, String interfaceName, ExportedMethod method, int methodID) {
+        builder.append(interfaceName).append('.').append(method.name()).append(" = function(");
+
+        if (method.isPacked()) {
+            builder.append(") { ").append(INTERFACE_NAME).append(".invoke(").append(methodID)
+                    .append(", valueToBridgeString([argumentsToBridgeString(arguments)])); };\n");
+            return;
+        }
+
+        Class<?>[] parameterTypes = method.parameterClasses();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            builder.append(i == 0 ? "arg" : ", arg").append(i);
+        }
+        builder.append(") { ").append(INTERFACE_NAME).append(".invoke(").append(methodID).append(", valueToBridgeString([");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            JSBindings.appendArgument(builder, parameterTypes[i], i);
+        }
+        builder.append("])); };\n");
+    }
+
+    /*
+    An exported method and where it runs.  Its arguments are decoded straight into its parameter
+    types, Strings being the bridge string for that argument as usual.
+     */
+    private static final class Target {
+        final Object mObject;
+        final String mInterfaceName;
+        final ExportedMethod mMethod;
+        final Class<?>[] mParameterTypes;
+        final TypeAdapter<?>[] mParameterAdapters;
+        final Dispatch mDispatch;
+        // ie: "page.tapped", for logging.
+        final String mName;
+        // the trace section for each call, ie: "jsbridge:page.tapped".
+        final String mTraceName;
+
+        Target(Object object, String interfaceName, ExportedMethod method, Dispatch dispatch) {
+            mObject = object;
+            mInterfaceName = interfaceName;
+            mMethod = method;
+            mName = interfaceName + "." + method.name();
+            mTraceName = "jsbridge:" + mName;
+            mParameterTypes = method.parameterClasses();
+            mDispatch = dispatch;
+
+            Type[] genericTypes = method.parameterTypes();
+            mParameterAdapters = new TypeAdapter<?>[genericTypes.length];
+            for (int i = 0; i < genericTypes.length; i++) {
+                if (genericTypes[i] == null) {
+                    throw new IllegalArgumentException("Can't decode into parameter " + i);
+                }
+                mParameterAdapters[i] = TypeAdapters.forType(genericTypes[i]);
+            }
+        }
+
+        void call(String arguments) {
+            BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+            boolean traced = BridgeTrace.isEnabled();
+            if (listener == null && !traced) {
+                invoke(arguments);
+                return;
+            }
+
+            if (traced) {
+                BridgeTrace.begin(mTraceName);
+            }
+            long start = System.nanoTime();
+            try {
+                invoke(arguments);
+            } finally {
+                if (listener != null) {
+                    listener.onJavascriptCall(mInterfaceName, mMethod.name(), System.nanoTime() - start);
+                }
+                if (traced) {
+                    BridgeTrace.end();
+                }
+            }
+        }
+
+        private void invoke(String arguments) {
+            Object[] params;
+            try {
+                params = JSValueDecoder.decodeArgumentsAs(arguments, mParameterAdapters);
+            } catch (JSONException e) {
+                Log.e(TAG, mName + " got arguments it can't decode", e);
+                return;
+            }
+
+            // missing arguments, or NaN, come through as null.
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] == null && mParameterTypes[i].isPrimitive()) {
+                    params[i] = defaultValue(mParameterTypes[i]);
+                }
+            }
+
+            try {
+                mMethod.invoke(mObject, params);
+            } catch (RuntimeException e) {
+                // DIRECT methods are on the JavaBridge thread, where WebView passes this on to
+                // the page.  Dispatched ones are caught in invoke().
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static Object defaultValue(Class<?> primitive) {
+            if (primitive == int.class) {
+                return 0;
+            } else if (primitive == long.class) {
+                return 0L;
+            } else if (primitive == double.class) {
+                return 0.0;
+            }
+            return false;
+        }
+    }
+
+    /*
+    An exported method of a class without a generated binding, called through reflection.
+     */
+    private static final class ReflectedMethod extends ExportedMethod {
+        private final Method mMethod;
+
+        ReflectedMethod(Method method) {
+            super(method.getName(), method.getGenericParameterTypes(), method.getReturnType() != void.class,
+                    method.isAnnotationPresent(PackedArguments.class), dispatchOf(method));
+            mMethod = method;
+        }
+
+        @Override
+        public void invoke(Object target, Object[] arguments) throws Exception {
+            try {
+                mMethod.invoke(target, arguments);
+            } catch (InvocationTargetException e) {
+                // what the method threw, same as a generated binding would.
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw e;
+            }
+        }
+
+        private static String dispatchOf(Method method) {
+            DispatchOn annotation = method.getAnnotation(DispatchOn.class);
+            return annotation != null ? annotation.value().name() : null;
+        }
+    }
+
+    /*
+    A call being timed from the page, see begin().  Whether it's measured or traced is decided
+    when it starts, so end() always matches it even if that changes in between.
+     */
+    private static final class Timing {
+        String mInterfaceName;
+        String mMethodName;
+        BridgeMetrics.Listener mListener;
+        boolean mTraced;
+        long mStart;
+    }
+
+    /*
+    Queues calls on one executor, keeping count of how many are waiting or running there.
+     */
+    private final class Lane {
+        volatile Executor mExecutor;
+        final AtomicInteger mDropped = new AtomicInteger();
+        // whether RUN_DIRECT is allowed to run calls on the JavaBridge thread, they block otherwise.
+        private final boolean mRunsDirect;
+        private int mQueued = 0;
+
+        Lane(Executor executor, boolean runsDirect) {
+            mExecutor = executor;
+            mRunsDirect = runsDirect;
+        }
+
+        void dispatch(final Runnable call) {
+            if (!reserve()) {
+                if (mShutdown) {
+                    return;
+                } else if (overflow() == DispatchOverflow.RUN_DIRECT) {
+                    call.run();
+                } else {
+                    drop();
+                }
+                return;
+            }
+
+            Executor executor = mExecutor != null ? mExecutor : defaultPool();
+            if (executor == null) {
+                free();
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            call.run();
+                        } finally {
+                            free();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                free();
+                drop();
+            }
+        }
+
+        synchronized void wake() {
+            notifyAll();
+        }
+
+        private synchronized boolean reserve() {
+            while (mQueued >= mQueueLimit) {
+                if (mShutdown || overflow() != DispatchOverflow.BLOCK) {
+                    return false;
+                }
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            mQueued++;
+            return true;
+        }
+
+        private synchronized void free() {
+            mQueued--;
+            notifyAll();
+        }
+
+        private DispatchOverflow overflow() {
+            DispatchOverflow overflow = mOverflow;
+            return overflow == DispatchOverflow.RUN_DIRECT && !mRunsDirect ? DispatchOverflow.BLOCK : overflow;
+        }
+
+        private void drop() {
+            if (mDropped.incrementAndGet() == 1) {
+                Log.w(TAG, "Dropping calls from javascript, the dispatch queue is full.");
+            }
+        }
+    }
+}
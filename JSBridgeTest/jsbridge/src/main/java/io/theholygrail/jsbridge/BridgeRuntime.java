@@ -0,0 +1,101 @@
+package io.theholygrail.jsbridge;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * The javascript side of the bridge.
+ *
+ * It's kept readable in src/main/js and shipped minified as an asset.  The asset is read the
+ * first time a JSWebView needs it and the same string is handed to every one after that, each
+ * page getting it as a single script along with that web view's settings.
+ */
+final class BridgeRuntime {
+    static final String ASSET_NAME = "jsbridge/runtime.min.js";
+
+    private static volatile String sRuntime = null;
+
+    private BridgeRuntime() {
+    }
+
+    /**
+     * Returns the script setting up the bridge in a page.
+     */
+    static String script(Context context, int bridgeID, int functionCacheLimit, boolean sendsFunctionSource) {
+        String runtime = runtime(context);
+        return new StringBuilder(runtime.length() + 128)
+                .append("__bridgeID = ").append(bridgeID)
+                .append(", __functionIDBase = ").append(FunctionTable.functionIDBase(bridgeID))
+                .append(", __functionIDLimit = ").append(functionCacheLimit)
+                .append(", __bridgeSendsFunctionSource = ").append(sendsFunctionSource)
+                .append(", __bridgeTiming = ").append(timing())
+                .append(";\n")
+                .append(runtime)
+                .toString();
+    }
+
+    /**
+     * Returns the script that starts or stops the page timing calls to exported methods, for
+     * when BridgeMetrics or BridgeTrace changed since the runtime was sent.
+     */
+    static String timingScript() {
+        return "__bridgeTiming = " + timing() + ";";
+    }
+
+    /**
+     * Returns the runtime itself, reading it the first time it's asked for.
+     */
+    static String runtime(Context context) {
+        String result = sRuntime;
+
+        if (result == null) {
+            synchronized (BridgeRuntime.class) {
+                result = sRuntime;
+                if (result == null) {
+                    result = read(context);
+                    sRuntime = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    // the page only has __bridgeDispatch if it loaded after the first interface was added.
+    private static String timing() {
+        return BridgeMetrics.getListener() != null || BridgeTrace.isEnabled() ?
+                "(typeof __bridgeDispatch !== 'undefined' ? __bridgeDispatch : null)" : "null";
+    }
+
+    private static String read(Context context) {
+        InputStream input = null;
+        try {
+            input = context.getAssets().open(ASSET_NAME);
+            Reader reader = new InputStreamReader(input, "UTF-8");
+            StringBuilder builder = new StringBuilder(8 * 1024);
+            char[] buffer = new char[4 * 1024];
+
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, count);
+            }
+            return builder.toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read " + ASSET_NAME + " from the jsbridge assets", e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // .. do nothing.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.theholygrail.jsbridge;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.net.http.SslError;
+import android.os.Build;
+import android.os.Message;
+import android.view.InputEvent;
+import android.view.KeyEvent;
+import android.webkit.ClientCertRequest;
+import android.webkit.HttpAuthHandler;
+import android.webkit.SslErrorHandler;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * Wraps whatever WebViewClient is set on a JSWebView, so the bridge knows when each page starts
+ * and is set up again in each page that finishes loading however the client is replaced.
+ * Everything else is passed straight on.
+ */
+final class BridgeWebViewClient extends WebViewClient {
+    private final WebViewClient mClient;
+    private final Runnable mPageStarted;
+    private final Runnable mPageFinished;
+
+    BridgeWebViewClient(WebViewClient client, Runnable pageStarted, Runnable pageFinished) {
+        mClient = client != null ? client : new WebViewClient();
+        mPageStarted = pageStarted;
+        mPageFinished = pageFinished;
+    }
+
+    @Override
+    public void onPageFinished(WebView view, String url) {
+        // ours first, so the page's own client can use the bridge straight away.
+        mPageFinished.run();
+        mClient.onPageFinished(view, url);
+    }
+
+    @Override
+    public boolean shouldOverrideUrlLoading(WebView view, String url) {
+        return mClient.shouldOverrideUrlLoading(view, url);
+    }
+
+    @Override
+    public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        mPageStarted.run();
+        mClient.onPageStarted(view, url, favicon);
+    }
+
+    @Override
+    public void onLoadResource(WebView view, String url) {
+        mClient.onLoadResource(view, url);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+        return mClient.shouldInterceptRequest(view, url);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        return mClient.shouldInterceptRequest(view, request);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void onTooManyRedirects(WebView view, Message cancelMsg, Message continueMsg) {
+        mClient.onTooManyRedirects(view, cancelMsg, continueMsg);
+    }
+
+    @Override
+    public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
+        mClient.onReceivedError(view, errorCode, description, failingUrl);
+    }
+
+    @Override
+    public void onFormResubmission(WebView view, Message dontResend, Message resend) {
+        mClient.onFormResubmission(view, dontResend, resend);
+    }
+
+    @Override
+    public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+        mClient.doUpdateVisitedHistory(view, url, isReload);
+    }
+
+    @Override
+    public void onReceivedSslError(WebView view, SslErrorHandler handler, SslError error) {
+        mClient.onReceivedSslError(view, handler, error);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void onReceivedClientCertRequest(WebView view, ClientCertRequest request) {
+        mClient.onReceivedClientCertRequest(view, request);
+    }
+
+    @Override
+    public void onReceivedHttpAuthRequest(WebView view, HttpAuthHandler handler, String host, String realm) {
+        mClient.onReceivedHttpAuthRequest(view, handler, host, realm);
+    }
+
+    @Override
+    public boolean shouldOverrideKeyEvent(WebView view, KeyEvent event) {
+        return mClient.shouldOverrideKeyEvent(view, event);
+    }
+
+    @Override
+    public void onUnhandledKeyEvent(WebView view, KeyEvent event) {
+        mClient.onUnhandledKeyEvent(view, event);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void onUnhandledInputEvent(WebView view, InputEvent event) {
+        mClient.onUnhandledInputEvent(view, event);
+    }
+
+    @Override
+    public void onScaleChanged(WebView view, float oldScale, float newScale) {
+        mClient.onScaleChanged(view, oldScale, newScale);
+    }
+
+    @Override
+    public void onReceivedLoginRequest(WebView view, String realm, String account, String args) {
+        mClient.onReceivedLoginRequest(view, realm, account, args);
+    }
+}
@@ -0,0 +1,95 @@
+package io.theholygrail.jsbridge;
+
+import android.os.Handler;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Times out JSCalls that the page never answers, ie: it navigated away, or the result was lost
+ * somewhere along the way.
+ *
+ * Rather than a timer per call, outstanding calls are kept in one set and swept when the
+ * earliest deadline comes up.  Timing a call out finishes it, which runs its clean up, so any
+ * pending result slot it held is reclaimed too.
+ */
+final class CallWatchdog implements Runnable {
+    private final Handler mHandler;
+    private final Set<JSCall> mCalls = Collections.newSetFromMap(new ConcurrentHashMap<JSCall, Boolean>());
+    // when the next sweep is due, Long.MAX_VALUE if there isn't one.
+    private long mNextSweepNanos = Long.MAX_VALUE;
+
+    CallWatchdog(Handler handler) {
+        mHandler = handler;
+    }
+
+    void watch(JSCall call) {
+        if (call.deadlineNanos() == Long.MAX_VALUE) {
+            return;
+        }
+
+        mCalls.add(call);
+        scheduleSweep(call.deadlineNanos());
+    }
+
+    /**
+     * Stops watching a call, once it has finished.
+     */
+    void unwatch(JSCall call) {
+        mCalls.remove(call);
+    }
+
+    int size() {
+        return mCalls.size();
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            mNextSweepNanos = Long.MAX_VALUE;
+        }
+
+        long nextDeadline = sweep(System.nanoTime());
+        if (nextDeadline != Long.MAX_VALUE) {
+            scheduleSweep(nextDeadline);
+        }
+    }
+
+    /**
+     * Times out every call past its deadline and returns the earliest deadline left.
+     */
+    long sweep(long nowNanos) {
+        long nextDeadline = Long.MAX_VALUE;
+
+        for (JSCall call : mCalls) {
+            long deadline = call.deadlineNanos();
+            if (deadline <= nowNanos) {
+                mCalls.remove(call);
+                call.fail(new TimeoutException("No result from javascript in time"));
+            } else if (deadline < nextDeadline) {
+                nextDeadline = deadline;
+            }
+        }
+
+        return nextDeadline;
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private void scheduleSweep(long deadlineNanos) {
+        // reposted under the lock, otherwise a later deadline could be posted over an earlier one.
+        synchronized (this) {
+            if (deadlineNanos >= mNextSweepNanos) {
+                return;
+            }
+            mNextSweepNanos = deadlineNanos;
+
+            long delayMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadlineNanos - System.nanoTime())) + 1;
+            mHandler.removeCallbacks(this);
+            mHandler.postDelayed(this, delayMillis);
+        }
+    }
+}
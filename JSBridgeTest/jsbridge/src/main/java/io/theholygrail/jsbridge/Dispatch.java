@@ -0,0 +1,27 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * Where calls from javascript to an exported method are run.
+ *
+ * Exported methods are called on the WebView's JavaBridge thread, one at a time, and javascript
+ * waits for each one to return.  A slow method holds up every other call from the page.  Methods
+ * that don't need to hand back a value can be run elsewhere instead, see @DispatchOn and
+ * JSWebView.addJavascriptInterface().  Javascript has carried on by the time those run, so
+ * anything they throw is logged rather than passed back to the page.
+ */
+public enum Dispatch {
+    /**
+     * Run on the JavaBridge thread, as WebView does.  The default.
+     */
+    DIRECT,
+
+    /**
+     * Posted to the main thread, for methods that touch views.
+     */
+    MAIN,
+
+    /**
+     * Run on a small background pool, see JSWebView.setDispatchExecutor().
+     */
+    BACKGROUND
+}
@@ -0,0 +1,27 @@
+package io.theholygrail.jsbridge;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Picks where an exported method runs, or every method of an exported class.  An annotation on
+ * the method wins over one on the class, or the Dispatch passed to addJavascriptInterface().
+ *
+ * Only methods returning void are dispatched, javascript can't wait for a value from another
+ * thread.  Methods that return something are always run directly.
+ *
+ * ie:
+ *
+ *     @JavascriptInterface
+ *     @DispatchOn(Dispatch.MAIN)
+ *     public void showMessage(String message) {
+ *         mToolbar.setSubtitle(new JSValue(message).stringValue());
+ *     }
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface DispatchOn {
+    Dispatch value();
+}
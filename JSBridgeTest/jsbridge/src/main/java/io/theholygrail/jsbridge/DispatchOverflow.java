@@ -0,0 +1,24 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * What happens to a call from javascript when its executor already has as many calls queued as
+ * JSWebView.setDispatchQueueLimit() allows.
+ */
+public enum DispatchOverflow {
+    /**
+     * Wait on the JavaBridge thread until there's room.  Javascript is held up too, which slows
+     * the page down to what Java can keep up with.  The default.
+     */
+    BLOCK,
+
+    /**
+     * Run the call on the JavaBridge thread, as if it were DIRECT.  Calls for Dispatch.MAIN
+     * methods wait for room instead, as with BLOCK, since they're the ones touching views.
+     */
+    RUN_DIRECT,
+
+    /**
+     * Drop the call and log it.  Only for calls that are fine to lose, ie: progress updates.
+     */
+    DROP
+}
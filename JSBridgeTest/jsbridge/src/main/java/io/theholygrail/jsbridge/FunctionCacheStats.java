@@ -0,0 +1,95 @@
+package io.theholygrail.jsbridge;
+
+/**
+ * A snapshot of a JSWebView's function cache, from JSWebView.getFunctionCacheStats().
+ *
+ * The page side counts are what the page is actually holding on to; the handle counts are the
+ * JSFunction references Java has been given and what became of them.  A size that keeps close
+ * to the limit, or any evictions, means the limit is too small for the traffic.
+ */
+public final class FunctionCacheStats {
+    private final int mSize;
+    private final int mPeakSize;
+    private final int mLimit;
+    private final int mEvictedCount;
+    private final int mLiveHandleCount;
+    private final int mTrackedHandleCount;
+    private final int mReleasedHandleCount;
+    private final int mCollectedHandleCount;
+
+    FunctionCacheStats(int size, int peakSize, int limit, int evictedCount, FunctionTable table) {
+        mSize = size;
+        mPeakSize = peakSize;
+        mLimit = limit;
+        mEvictedCount = evictedCount;
+        mLiveHandleCount = table.liveCount();
+        mTrackedHandleCount = table.trackedCount();
+        mReleasedHandleCount = table.releasedCount();
+        mCollectedHandleCount = table.collectedCount();
+    }
+
+    /**
+     * The number of functions the page is holding for Java right now.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * The most functions the page has held at once.
+     */
+    public int getPeakSize() {
+        return mPeakSize;
+    }
+
+    /**
+     * The limit set with JSWebView.setFunctionCacheLimit().
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * The number of functions the page dropped to stay under the limit while Java still held
+     * references to them.
+     */
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * The number of JSFunction references Java is holding that haven't been released.
+     */
+    public int getLiveHandleCount() {
+        return mLiveHandleCount;
+    }
+
+    /**
+     * The total number of function references Java has been given.
+     */
+    public int getTrackedHandleCount() {
+        return mTrackedHandleCount;
+    }
+
+    /**
+     * The number of function references released with JSValue.release().
+     */
+    public int getReleasedHandleCount() {
+        return mReleasedHandleCount;
+    }
+
+    /**
+     * The number of function references released after being garbage collected.
+     */
+    public int getCollectedHandleCount() {
+        return mCollectedHandleCount;
+    }
+
+    @Override
+    public String toString() {
+        return "FunctionCacheStats{size=" + mSize + ", peak=" + mPeakSize + ", limit=" + mLimit +
+                ", evicted=" + mEvictedCount + ", liveHandles=" + mLiveHandleCount +
+                ", tracked=" + mTrackedHandleCount + ", released=" + mReleasedHandleCount +
+                ", collected=" + mCollectedHandleCount + "}";
+    }
+}
@@ -1,11 +1,17 @@
 package io.theholygrail.jsbridge;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.webkit.ConsoleMessage;
+import android.webkit.DownloadListener;
 import android.webkit.JavascriptInterface;
 import android.webkit.JsResult;
 import android.webkit.ValueCallback;
@@ -14,16 +20,86 @@ import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
-import java.lang.reflect.Method;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by brandon on 4/28/15.
  */
-public class JSWebView extends WebView {
+public class JSWebView extends WebView implements JSContext {
+    private static final String NULL_BRIDGE_STRING = "{\"" + JSValueDecoder.RAW_VALUE_KEY + "\": null}";
+    // every web view that hasn't been destroyed, told when BridgeMetrics or BridgeTrace changes.
+    private static final Set<JSWebView> sWebViews = Collections.newSetFromMap(new WeakHashMap<JSWebView, Boolean>());
+
     private Context mContext = null;
-    private int mFunctionCacheLimit = 200;
+    private int mFunctionCacheLimit = 1000;
+    private boolean mSendsFunctionSource = true;
+    // everything headed to the page from other threads goes through here.
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // evaluateJavascript() shows up in KitKat, before that we're stuck with javascript: urls.
+    // read from whichever thread sends the script.
+    private volatile boolean mUsesEvaluateJavascript = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    // scripts headed to the page are collected here and run together once per frame.
+    private final JavascriptBatch mJavascriptBatch = new JavascriptBatch();
+    // times out calls the page never answers.
+    private final CallWatchdog mCallWatchdog = new CallWatchdog(mMainHandler);
+    private long mCallTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+    // tracks the functions the page is holding on to for us, a new one for each page.
+    private volatile FunctionTable mFunctionTable = null;
+    private final FunctionTable.Owner mFunctionReleaser = new FunctionTable.Owner() {
+        @Override
+        public void releaseFunctions(String ids) {
+            executeJavascript("__bridgeReleaseFunctions([" + ids + "]);");
+        }
+    };
+
+    // runs exported methods that asked to be off the JavaBridge thread.
+    private final BridgeDispatcher mDispatcher = new BridgeDispatcher(new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mMainHandler.post(command);
+        }
+    });
+    // where results are handed back, null for wherever they arrive.
+    private volatile Executor mResultExecutor = null;
+    // results we're waiting on, only counted while there's a BridgeMetrics listener.
+    private final AtomicInteger mPendingResultCount = new AtomicInteger();
+    // the stubs for everything exported, sent again with the runtime whenever a page loads.
+    private final StringBuilder mBridgeStubs = new StringBuilder();
+    // what was exported, in order, and how much of it there was when markPrepared() was called.
+    private final List<String> mInterfaceNames = new ArrayList<>();
+    private int mPreparedInterfaceCount = 0;
+    private int mPreparedStubsLength = 0;
+    private int mPreparedTargetCount = 0;
+    // the settings a screen can change, as they were when markPrepared() was called.
+    private Settings mPreparedSettings = null;
+    // WebView doesn't let us read it back.
+    private DownloadListener mDownloadListener = null;
+    // main thread only, see clearHistoryOnPageFinished().
+    private boolean mClearsHistoryOnPageFinished = false;
+    private final Runnable mPageStarted = new Runnable() {
+        @Override
+        public void run() {
+            startFunctionTable();
+        }
+    };
+    private final Runnable mPageFinished = new Runnable() {
+        @Override
+        public void run() {
+            injectBridge();
+            if (mClearsHistoryOnPageFinished) {
+                mClearsHistoryOnPageFinished = false;
+                clearHistory();
+            }
+        }
+    };
 
     public BridgeSupport bridgeSupport = null;
 
@@ -45,114 +121,794 @@ public class JSWebView extends WebView {
         setupDefaults();
     }
 
+    @Override
+    public void destroy() {
+        if (mFunctionTable != null) {
+            mFunctionTable.close();
+        }
+        mDispatcher.shutdown();
+        synchronized (sWebViews) {
+            sWebViews.remove(this);
+        }
+        super.destroy();
+    }
+
     @Override
     public void addJavascriptInterface(Object obj, String interfaceName) {
+        addJavascriptInterface(obj, interfaceName, null);
+    }
+
+    /**
+     * Exports an object with its methods run on the given thread, unless they say otherwise with
+     * @DispatchOn.  Only methods returning void can be dispatched, anything else is run directly.
+     */
+    public void addJavascriptInterface(Object obj, String interfaceName, Dispatch dispatch) {
         super.addJavascriptInterface(obj, "__"+interfaceName);
+        mInterfaceNames.add(interfaceName);
 
         loadJavascriptBaseSupport();
-        loadJavascriptSupportBits(interfaceName);
-        exportObjectMethodsToJS(obj, interfaceName);
+        exportObjectMethodsToJS(obj, interfaceName, dispatch);
     }
 
+    /**
+     * The client is wrapped so the bridge gets set up in each page that loads, see
+     * BridgeWebViewClient.
+     */
+    @Override
+    public void setWebViewClient(WebViewClient client) {
+        super.setWebViewClient(new BridgeWebViewClient(client, mPageStarted, mPageFinished));
+    }
+
+    @Override
+    public void setDownloadListener(DownloadListener listener) {
+        mDownloadListener = listener;
+        super.setDownloadListener(listener);
+    }
+
+    /**
+     * Runs the given javascript in the page.  This can be called from any thread.
+     *
+     * Scripts aren't run right away, everything submitted within the same frame is joined up and
+     * run as a single evaluation, in the order it was submitted.  Use flushJavascript() to run
+     * anything pending immediately.  Each script still goes through eval() on its own, so one
+     * with a syntax error or that throws doesn't stop the others.  Like any global eval(), var
+     * and function declarations become globals, but let, const and class stay in the script.
+     */
+    @Override
     public void executeJavascript(String javascript) {
         // Useful for seeing the injected javascript.
         //Log.d("javascript", javascript);
 
-        /*
-        The WebView.evaluateJavascript() method would be a much better choice, but it's not
-        available until a later SDK than we support.
-         */
-        loadUrl("javascript:" + Uri.encode(javascript));
+        if (!BridgeTrace.isEnabled()) {
+            mJavascriptBatch.add(javascript);
+            return;
+        }
+
+        BridgeTrace.begin("jsbridge:JSWebView.executeJavascript");
+        try {
+            mJavascriptBatch.add(javascript);
+        } finally {
+            BridgeTrace.end();
+        }
+    }
+
+    /**
+     * Runs any scripts waiting on the next frame now.  Off the main thread this posts the flush
+     * to it instead, so scripts submitted before it gets there go along too.
+     */
+    public void flushJavascript() {
+        runOnMainThread(mJavascriptBatch);
+    }
+
+    /**
+     * Evaluates a javascript expression and passes the bridge string for its value to the given
+     * callback.
+     *
+     * Like executeJavascript(), the expression waits for the next frame, or flushJavascript(),
+     * behind anything submitted before it.  With evaluateJavascript() available the value comes
+     * back on the main thread.  Otherwise the expression is wrapped in a call to __bridgeSupport.passResult() and the value
+     * arrives on the JavaBridge thread.
+     */
+    public void evaluateJavascriptForResult(String expression, ValueCallback<String> resultCallback) {
+        evaluateForBridgeString("valueToBridgeString(" + expression + ")", resultCallback);
+    }
+
+    /**
+     * Evaluates a javascript expression and returns a JSCall for its value.  The call times out
+     * after the default set with setCallTimeout().
+     */
+    @Override
+    public JSCall evaluateJavascriptAsync(String expression) {
+        return evaluateJavascriptAsync(expression, mCallTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Evaluates a javascript expression and returns a JSCall for its value.  If the expression
+     * throws, the call fails with a JSException.  If nothing comes back within the timeout, ie:
+     * the page went away, it fails with a TimeoutException and anything held for it is let go.
+     * A timeout of zero waits forever.
+     */
+    @Override
+    public JSCall evaluateJavascriptAsync(String expression, long timeout, TimeUnit unit) {
+        final JSCall call = new JSCall(unit.toNanos(timeout));
+        // names the trace sections.  callID can't, it's only there for the passResult() transport.
+        final int traceID = BridgeTrace.isEnabled() ? BridgeTrace.nextCallID() : 0;
+        final String script = "__bridgeCall(function() { return (" + expression + "); }"
+                + (traceID > 0 ? ", " + traceID + ")" : ")");
+        final ValueCallback<String> resultCallback = new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                if (traceID > 0) {
+                    BridgeTrace.begin("jsbridge:result", String.valueOf(traceID));
+                }
+                try {
+                    call.complete(value);
+                } finally {
+                    if (traceID > 0) {
+                        BridgeTrace.end();
+                    }
+                }
+            }
+        };
+
+        // watched before the script goes out, so the call times out even if its result never can,
+        // ie: the page isn't there to take it.  Finishing early is fine, setOnFinished() catches up.
+        mCallWatchdog.watch(call);
+
+        final int callID;
+        if (traceID > 0) {
+            BridgeTrace.begin("jsbridge:call", String.valueOf(traceID));
+        }
+        try {
+            callID = evaluateForBridgeString(script, resultCallback);
+        } finally {
+            if (traceID > 0) {
+                BridgeTrace.end();
+            }
+        }
+
+        call.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                mCallWatchdog.unwatch(call);
+                if (callID >= 0) {
+                    // a result that shows up later is dropped.
+                    bridgeSupport.abandonResult(callID);
+                }
+            }
+        });
+
+        return call;
+    }
+
+    /**
+     * Calls a javascript function passed to Java with the given arguments.  The callback, if any,
+     * gets the function's result, or an empty value if it threw or timed out.  Use
+     * JSValue.callFunctionAsync() to tell those apart.
+     */
+    public void callFunction(JSValue function, Object args[], final ValueCallback<JSValue> resultCallback) {
+        if (!function.isFunction()) {
+            return;
+        }
+
+        if (resultCallback != null) {
+            function.callFunctionAsync(this, args).addCallback(new JSCall.Callback() {
+                @Override
+                public void onResult(JSValue value) {
+                    resultCallback.onReceiveValue(value);
+                }
+
+                @Override
+                public void onError(Exception error) {
+                    resultCallback.onReceiveValue(new JSValue());
+                }
+            });
+        } else {
+            function.callFunction(this, args);
+        }
+    }
+
+    /**
+     * Sets how long calls made with evaluateJavascriptAsync() and JSValue.callFunctionAsync()
+     * wait before timing out, unless they're given their own timeout.  30 seconds by default,
+     * zero waits forever.
+     */
+    public void setCallTimeout(long timeout, TimeUnit unit) {
+        mCallTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Turns the evaluateJavascript() transport on or off.  It's on by default where available,
+     * turning it off falls back to javascript: urls and __bridgeSupport.passResult().
+     */
+    public void setUsesEvaluateJavascript(boolean usesEvaluateJavascript) {
+        mUsesEvaluateJavascript = usesEvaluateJavascript && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    public boolean usesEvaluateJavascript() {
+        return mUsesEvaluateJavascript;
+    }
+
+    /**
+     * Runs the given runnable on the main thread, immediately if we're already on it.
+     */
+    public void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mMainHandler.post(runnable);
+        }
     }
 
+    /**
+     * Sets how many functions the page will hold for Java at once.  Functions are held until
+     * they're released from Java, so this only comes into play when references aren't being let
+     * go of; past it the oldest function is dropped.  Function IDs are never reused, calling a
+     * dropped function fails rather than calling something else.  Defaults to 1000.
+     *
+     * Use getFunctionCacheStats() to see how close to the limit real traffic gets.
+     */
     public void setFunctionCacheLimit(int count) {
         mFunctionCacheLimit = count;
-        executeJavascript("__functionIDLimit = " + mFunctionCacheLimit + ";");
+        // otherwise it goes over with the runtime.
+        if (bridgeSupport != null) {
+            executeJavascript("__functionIDLimit = " + mFunctionCacheLimit + ";");
+        }
+    }
+
+    /**
+     * Passes a snapshot of the function cache to the given callback, or null if the bridge isn't
+     * set up yet.  Releases anything garbage collected first, so the counts are up to date.
+     */
+    public void getFunctionCacheStats(final ValueCallback<FunctionCacheStats> resultCallback) {
+        final FunctionTable table = mFunctionTable;
+        if (table == null) {
+            resultCallback.onReceiveValue(null);
+            return;
+        }
+
+        FunctionTable.drainCollected();
+        evaluateJavascriptForResult("__bridgeFunctionCacheStats()", new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                JSValue stats = new JSValue(value);
+                resultCallback.onReceiveValue(new FunctionCacheStats(intValue(stats, "size"),
+                        intValue(stats, "peak"), intValue(stats, "limit"), intValue(stats, "evicted"), table));
+            }
+        });
+    }
+
+    /**
+     * Sets whether the source of javascript functions passed to Java is sent along with them.
+     * It's only used by JSValue.functionSourceValue(), so turning it off saves base64 encoding
+     * every callback and shrinks payloads for pages that pass a lot of them.  On by default.
+     */
+    public void setSendsFunctionSource(boolean sendsFunctionSource) {
+        mSendsFunctionSource = sendsFunctionSource;
+        if (bridgeSupport != null) {
+            executeJavascript("__bridgeSendsFunctionSource = " + mSendsFunctionSource + ";");
+        }
+    }
+
+    public boolean sendsFunctionSource() {
+        return mSendsFunctionSource;
+    }
+
+    /**
+     * Sets the executor Dispatch.BACKGROUND methods run on.  By default they share a pool of two
+     * threads, pass null to go back to it.
+     */
+    public void setDispatchExecutor(Executor executor) {
+        mDispatcher.setBackgroundExecutor(executor);
+    }
+
+    /**
+     * Sets how many calls from javascript can be queued or running on each of the main thread
+     * and the background executor before the overflow policy kicks in.  64 by default.
+     */
+    public void setDispatchQueueLimit(int queueLimit) {
+        mDispatcher.setQueueLimit(queueLimit);
+    }
+
+    /**
+     * Sets what happens to calls from javascript once the dispatch queue is full.  By default
+     * the page waits for room.
+     */
+    public void setDispatchOverflow(DispatchOverflow overflow) {
+        mDispatcher.setOverflow(overflow);
+    }
+
+    /**
+     * Sets the executor results from javascript are handed back on, for callFunction(),
+     * evaluateJavascriptForResult() and JSCall callbacks.  By default they're handed back on
+     * whichever thread they arrive on, the main thread or the JavaBridge thread, so anything slow
+     * there holds up the rest of the bridge.  Pass null to go back to that.
+     */
+    public void setResultExecutor(Executor executor) {
+        mResultExecutor = executor;
     }
 
     // Private stuff -------------------------------------------------------------------------------
 
+    /*
+    Collects scripts from any thread and runs them on the main thread as one evaluation.  Each
+    script is passed to a global eval() as a string, so it's parsed on its own, and one with a
+    syntax error or that throws doesn't stop the ones around it.
+
+    Expressions evaluated for a result go in the same queue, so they run after everything
+    submitted before them and ahead of anything submitted afterwards, whichever thread it's from.
+    They wait on the frame like everything else, but each one is its own evaluation since it
+    needs its own callback.
+
+    The bridge itself, the runtime and stubs, goes ahead of everything as its own evaluation, so
+    nothing queued alongside it can keep a page from getting it.
+     */
+    private class JavascriptBatch implements Runnable {
+        private final StringBuilder mBridgeScript = new StringBuilder();
+        private final StringBuilder mScripts = new StringBuilder();
+        private int mScriptCount = 0;
+        // each with the scripts that were waiting ahead of it.
+        private final List<Evaluation> mEvaluations = new ArrayList<>();
+        private boolean mFlushScheduled = false;
+        private FrameFlush mFrameFlush = null;
+
+        private final Runnable mScheduleFlush = new Runnable() {
+            @Override
+            public void run() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    if (mFrameFlush == null) {
+                        mFrameFlush = new FrameFlush(JavascriptBatch.this);
+                    }
+                    mFrameFlush.post();
+                } else {
+                    mMainHandler.post(JavascriptBatch.this);
+                }
+            }
+        };
+
+        void add(String javascript) {
+            synchronized (this) {
+                // an indirect eval runs in the global scope, so var and function declarations
+                // still make globals.
+                mScripts.append("try { (0, eval)(");
+                JavascriptWriter.writeString(javascript, mScripts);
+                mScripts.append("); } catch (e) { console.error(e); }\n");
+                mScriptCount++;
+            }
+
+            scheduleFlush();
+        }
+
+        /**
+         * Queues part of the bridge, to be sent as is ahead of everything else.
+         */
+        void addBridgeScript(String javascript) {
+            synchronized (this) {
+                mBridgeScript.append(javascript).append('\n');
+            }
+
+            scheduleFlush();
+        }
+
+        /**
+         * Queues an expression for evaluateJavascript(), behind the scripts submitted so far.
+         */
+        void addEvaluation(String script, ValueCallback<String> callback) {
+            synchronized (this) {
+                mEvaluations.add(new Evaluation(takeScripts(mScripts), mScriptCount, script, callback));
+                mScriptCount = 0;
+            }
+
+            scheduleFlush();
+        }
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+        // main thread only.
+        void flush() {
+            String bridgeScript;
+            Evaluation[] evaluations;
+            String javascript;
+            int scriptCount;
+
+            synchronized (this) {
+                mFlushScheduled = false;
+                bridgeScript = takeScripts(mBridgeScript);
+                evaluations = mEvaluations.toArray(new Evaluation[mEvaluations.size()]);
+                mEvaluations.clear();
+                scriptCount = mScriptCount;
+                javascript = takeScripts(mScripts);
+                mScriptCount = 0;
+            }
+
+            send(bridgeScript, 1);
+            for (Evaluation evaluation : evaluations) {
+                send(evaluation.mScriptsBefore, evaluation.mScriptCount);
+                Evaluator.evaluate(JSWebView.this, evaluation.mScript, evaluation.mCallback);
+            }
+            send(javascript, scriptCount);
+        }
+
+        private void scheduleFlush() {
+            boolean scheduleFlush;
+
+            synchronized (this) {
+                scheduleFlush = !mFlushScheduled;
+                mFlushScheduled = true;
+            }
+
+            if (scheduleFlush) {
+                runOnMainThread(mScheduleFlush);
+            }
+        }
+
+        private String takeScripts(StringBuilder scripts) {
+            if (scripts.length() == 0) {
+                return null;
+            }
+
+            String result = scripts.toString();
+            scripts.setLength(0);
+            return result;
+        }
+
+        private void send(String javascript, int scriptCount) {
+            if (javascript == null) {
+                return;
+            }
+
+            BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+            if (listener != null) {
+                listener.onScriptSent(javascript.length(), scriptCount);
+            }
+
+            boolean traced = BridgeTrace.isEnabled();
+            if (traced) {
+                BridgeTrace.begin("jsbridge:JSWebView.flushJavascript", scriptCount + " scripts");
+            }
+            try {
+                if (mUsesEvaluateJavascript) {
+                    Evaluator.evaluate(JSWebView.this, javascript, null);
+                } else {
+                    loadUrl("javascript:" + Uri.encode(javascript));
+                }
+            } finally {
+                if (traced) {
+                    BridgeTrace.end();
+                }
+            }
+        }
+    }
+
+    private static final class Evaluation {
+        final String mScriptsBefore;
+        final int mScriptCount;
+        final String mScript;
+        final ValueCallback<String> mCallback;
+
+        Evaluation(String scriptsBefore, int scriptCount, String script, ValueCallback<String> callback) {
+            mScriptsBefore = scriptsBefore;
+            mScriptCount = scriptCount;
+            mScript = script;
+            mCallback = callback;
+        }
+    }
+
+    /*
+    Times a result from when it's asked for to when it arrives, and keeps count of the ones still
+    on their way.
+     */
+    private class MeasuredResult implements ValueCallback<String> {
+        private final ValueCallback<String> mCallback;
+        private final BridgeMetrics.Listener mListener;
+        private final long mStartNanos = System.nanoTime();
+        private final AtomicBoolean mFinished = new AtomicBoolean(false);
+
+        MeasuredResult(ValueCallback<String> callback, BridgeMetrics.Listener listener) {
+            mCallback = callback;
+            mListener = listener;
+            mListener.onPendingResults(mPendingResultCount.incrementAndGet());
+        }
+
+        @Override
+        public void onReceiveValue(String value) {
+            if (mFinished.compareAndSet(false, true)) {
+                mListener.onResult(System.nanoTime() - mStartNanos);
+                mListener.onPendingResults(mPendingResultCount.decrementAndGet());
+            }
+            mCallback.onReceiveValue(value);
+        }
+
+        // it's not coming, ie: the call timed out.
+        void abandon() {
+            if (mFinished.compareAndSet(false, true)) {
+                mListener.onPendingResults(mPendingResultCount.decrementAndGet());
+            }
+        }
+    }
+
+    // kept on its own so Choreographer is only touched on Jelly Bean and later.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameFlush implements Choreographer.FrameCallback {
+        private final Runnable mFlush;
+
+        FrameFlush(Runnable flush) {
+            mFlush = flush;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFlush.run();
+        }
+    }
+
+    // same for evaluateJavascript(), only called once mUsesEvaluateJavascript says it's there.
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static final class Evaluator {
+        private Evaluator() {
+        }
+
+        static void evaluate(WebView webView, String script, ValueCallback<String> callback) {
+            webView.evaluateJavascript(script, callback);
+        }
+    }
+
     public class BridgeSupport {
         private Context mContext = null;
-        private ValueCallback<String> mResultCallback = null;
-        private final Lock resultLock = new ReentrantLock();
+        private final PendingResults<ValueCallback<String>> mPendingResults = new PendingResults<>();
 
         BridgeSupport(Context context) {
             mContext = context;
         }
 
-        protected void expectResult(ValueCallback<String> resultCallback) {
-            resultLock.lock();
-            mResultCallback = resultCallback;
+        /**
+         * Registers a callback for a result and returns the call ID javascript should pass back
+         * to passResult() along with it.
+         */
+        protected int expectResult(ValueCallback<String> resultCallback) {
+            return mPendingResults.add(resultCallback);
+        }
+
+        /**
+         * Stops waiting on a result, ie: the call timed out or was cancelled.
+         */
+        protected void abandonResult(int callID) {
+            ValueCallback<String> resultCallback = mPendingResults.remove(callID);
+            if (resultCallback instanceof MeasuredResult) {
+                ((MeasuredResult)resultCallback).abandon();
+            }
         }
 
         @JavascriptInterface
-        public void passResult(String result) {
-            mResultCallback.onReceiveValue(result);
-            resultLock.unlock();
+        public void passResult(int callID, String result) {
+            ValueCallback<String> resultCallback = mPendingResults.remove(callID);
+            if (resultCallback != null) {
+                resultCallback.onReceiveValue(result);
+            }
         }
     }
 
-    private void exportObjectMethodsToJS(Object obj, String interfaceName) {
-        Method methods[] = obj.getClass().getMethods();
+    /*
+    Evaluates a script that produces a bridge string and passes it to the callback.  Returns the
+    call ID waiting on passResult(), or -1 when evaluateJavascript() hands the result straight back.
+     */
+    private int evaluateForBridgeString(final String script, ValueCallback<String> callback) {
+        final ValueCallback<String> resultCallback = measureResult(onResultExecutor(callback));
+
+        if (mUsesEvaluateJavascript) {
+            // in line with everything else headed to the page, see JavascriptBatch.
+            mJavascriptBatch.addEvaluation(script, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String value) {
+                    // we get back the JSON for our bridge string, so unwrap it.
+                    String bridgeString = JSValueDecoder.decodeStringLiteral(value);
+                    resultCallback.onReceiveValue(bridgeString != null ? bridgeString : NULL_BRIDGE_STRING);
+                }
+            });
+            return -1;
+        } else {
+            int callID = bridgeSupport.expectResult(resultCallback);
+            executeJavascript("__bridgeSupport.passResult(" + callID + ", " + script + ");");
+            return callID;
+        }
+    }
 
-        for (Method method : methods) {
-            if (hasOnlyStringParameters(method)) {
-                // export it.
-                String methodName = method.getName();
-                String parameterString = generateParameterString(method);
-                String callString = generateCallString(method);
+    private ValueCallback<String> measureResult(ValueCallback<String> resultCallback) {
+        BridgeMetrics.Listener listener = BridgeMetrics.getListener();
+        return listener != null ? new MeasuredResult(resultCallback, listener) : resultCallback;
+    }
 
-                String jsString = interfaceName + "." + methodName + " = function(" + parameterString + ") { "
-                        + "__"+ interfaceName + "." + methodName + "("+callString+"); }";
-                executeJavascript(jsString);
-            }
+    private ValueCallback<String> onResultExecutor(final ValueCallback<String> resultCallback) {
+        final Executor executor = mResultExecutor;
+        if (executor == null) {
+            return resultCallback;
         }
+
+        return new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(final String value) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        resultCallback.onReceiveValue(value);
+                    }
+                });
+            }
+        };
     }
 
-    private Boolean hasOnlyStringParameters(Method method) {
-        Boolean result = true;
-        Class paramClasses[] = method.getParameterTypes();
-        for (int i = 0; i < paramClasses.length; i++) {
-            String typeName = paramClasses[i].getSimpleName();
-            if (!typeName.equals("String")) {
-                result = false;
-                break;
+    private static int intValue(JSValue value, String key) {
+        JSValue item = value.get(key);
+        Integer result = item != null ? item.integerValue() : null;
+        return result != null ? result : 0;
+    }
+
+    private void exportObjectMethodsToJS(Object obj, String interfaceName, Dispatch dispatch) {
+        boolean traced = BridgeTrace.isEnabled();
+        if (traced) {
+            BridgeTrace.begin("jsbridge:JSWebView.exportObjectMethodsToJS", interfaceName);
+        }
+
+        try {
+            // the binding is generated at build time, or worked out once per class otherwise.
+            JSBinding binding = JSBindings.forClass(obj.getClass());
+            String stubs = binding.javascriptStubs(interfaceName);
+            executeJavascript(stubs);
+            mBridgeStubs.append(stubs);
+
+            // then anything dispatched elsewhere has its stub replaced.
+            String dispatchStubs = mDispatcher.register(obj, interfaceName, dispatch);
+            if (dispatchStubs != null) {
+                executeJavascript(dispatchStubs);
+                mBridgeStubs.append(dispatchStubs);
+            }
+        } finally {
+            if (traced) {
+                BridgeTrace.end();
             }
         }
-        return result;
     }
 
-    private String generateParameterString(Method method) {
-        Class paramClasses[] = method.getParameterTypes();
-        String result = "";
-        for (int i = 0; i < paramClasses.length; i++) {
-            if (i == 0)
-                result += "arg0";
-            else
-                result += ", arg"+String.valueOf(i);
+    /*
+    Functions the last page was holding for us are gone with it.  Their references are let go of
+    without telling the new page, and it hands out IDs of its own, so calling one of them fails
+    rather than calling whatever the new page has under the same ID.
+     */
+    private void startFunctionTable() {
+        if (bridgeSupport == null) {
+            return;
         }
 
-        return result;
+        mFunctionTable.close();
+        mFunctionTable = FunctionTable.create(mFunctionReleaser);
     }
 
-    private String generateCallString(Method method) {
-        Class paramClasses[] = method.getParameterTypes();
-        String result = "";
-        for (int i = 0; i < paramClasses.length; i++) {
-            if (i == 0)
-                result += "valueToBridgeString(arg0)";
-            else
-                result += ", valueToBridgeString(arg"+String.valueOf(i)+")";
+    /*
+    A page that's just loaded has none of the bridge, and interfaces only show up in pages loaded
+    after they were added, so everything is sent again.  The runtime keeps its state if it's
+    already there, ie: when this is called twice for the same page.
+     */
+    private void injectBridge() {
+        if (bridgeSupport == null) {
+            return;
         }
 
-        return result;
+        mJavascriptBatch.addBridgeScript(BridgeRuntime.script(mContext, mFunctionTable.bridgeID(),
+                mFunctionCacheLimit, mSendsFunctionSource) + mBridgeStubs);
+        // we're on the main thread, so anything else waiting runs after it right away.
+        flushJavascript();
     }
 
     private void setupDefaults() {
         getSettings().setJavaScriptEnabled(true);
         getSettings().setLoadsImagesAutomatically(true);
         getSettings().setCacheMode(WebSettings.LOAD_NO_CACHE);
+        setDefaultClients();
+        synchronized (sWebViews) {
+            sWebViews.add(this);
+        }
+    }
+
+    /**
+     * Tells every page with the bridge whether to time calls to exported methods, see
+     * BridgeRuntime.timingScript().  Pages loaded later get it with the runtime.
+     */
+    static void instrumentationChanged() {
+        List<JSWebView> webViews;
+        synchronized (sWebViews) {
+            webViews = new ArrayList<>(sWebViews);
+        }
+
+        String script = BridgeRuntime.timingScript();
+        for (JSWebView webView : webViews) {
+            if (webView.bridgeSupport != null) {
+                webView.executeJavascript(script);
+            }
+        }
+    }
+
+    /**
+     * Remembers what's been exported and set so far, so resetForPool() can go back to it, ie:
+     * once JSWebViewPool's Preparer is done with a new web view.
+     */
+    void markPrepared() {
+        mPreparedInterfaceCount = mInterfaceNames.size();
+        mPreparedStubsLength = mBridgeStubs.length();
+        mPreparedTargetCount = mDispatcher.targetCount();
+        mPreparedSettings = new Settings(this);
+    }
+
+    /**
+     * Puts everything a screen may have changed back the way it was after markPrepared(), so
+     * the next screen doesn't get its interfaces, executors, timeouts or download listener.
+     */
+    void resetForPool() {
+        resetInterfaces();
+        if (mPreparedSettings != null) {
+            mPreparedSettings.restore(this);
+        }
+    }
+
+    /**
+     * Removes every javascript interface added since markPrepared(), along with its stubs, so
+     * nothing holds on to them and pages loaded afterwards don't get them.
+     */
+    void resetInterfaces() {
+        for (int i = mInterfaceNames.size() - 1; i >= mPreparedInterfaceCount; i--) {
+            removeJavascriptInterface("__" + mInterfaceNames.remove(i));
+        }
+        mBridgeStubs.setLength(mPreparedStubsLength);
+        mDispatcher.truncate(mPreparedTargetCount);
+    }
+
+    Executor resultExecutor() {
+        return mResultExecutor;
+    }
+
+    Executor dispatchExecutor() {
+        return mDispatcher.backgroundExecutor();
+    }
+
+    int dispatchQueueLimit() {
+        return mDispatcher.queueLimit();
+    }
+
+    DispatchOverflow dispatchOverflow() {
+        return mDispatcher.overflow();
+    }
+
+    long callTimeoutNanos() {
+        return mCallTimeoutNanos;
+    }
+
+    int functionCacheLimit() {
+        return mFunctionCacheLimit;
+    }
+
+    DownloadListener downloadListener() {
+        return mDownloadListener;
+    }
+
+    /**
+     * Clears the history once the page being loaded has finished, ie: when it's about:blank and
+     * nothing before it should be reachable with goBack().  Until then the last page is still
+     * the current entry, so clearing it right away would leave it behind.
+     */
+    void clearHistoryOnPageFinished() {
+        mClearsHistoryOnPageFinished = true;
+    }
+
+    /**
+     * Puts back the clients a new JSWebView starts out with, ie: for JSWebViewPool.
+     */
+    void setDefaultClients() {
         setWebViewClient(new WebViewClient() {
             public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
                 Log.d("JSWebViewError", "Code: " + errorCode + "Error: " + description + " Url: " + failingUrl);
@@ -171,77 +927,63 @@ public class JSWebView extends WebView {
         });
     }
 
-    private void loadJavascriptSupportBits(String interfaceName) {
-        executeJavascript(interfaceName + " = { };");
-    }
-
     private void loadJavascriptBaseSupport() {
         if (bridgeSupport == null) {
             bridgeSupport = new BridgeSupport(mContext);
 
-            // add our return handling stuff.
-            addJavascriptInterface(bridgeSupport, "__bridgeSupport");
-
-            // add our function passing stuff.
-            executeJavascript("__functionIDCounter = 0, __functionCache = { };");
-
-            // set the limit of our function cache to the default.
-            // this is used in the javascript injection below.
-            setFunctionCacheLimit(mFunctionCacheLimit);
-
-            // would be nice to load this from a file contained in the .jar instead?
-            executeJavascript("function valueToBridgeString(obj, embedded, cache) {\n" +
-                                    "    // recursion sanity check\n" +
-                                    "    if (!cache) cache = [];\n" +
-                                    "    if (cache.indexOf(obj) >= 0) {\n" +
-                                    "        throw new Error('Can\\'t do circular references');\n" +
-                                    "    } else {\n" +
-                                    "        cache.push(obj);\n" +
-                                    "    }\n" +
-                                    "\n" +
-                                    "    var rtn;\n" +
-                                    "    switch (typeof obj) {\n" +
-                                    "        case 'object':\n" +
-                                    "            if (!obj) {\n" +
-                                    "                rtn = JSON.stringify(obj);\n" +
-                                    "            } else if (Array.isArray(obj)) {\n" +
-                                    "                rtn = '[' + obj.map(function(item) {\n" +
-                                    "                    return valueToBridgeString(item, true, cache);\n" +
-                                    "                }).join(',') + ']';\n" +
-                                    "            } else {\n" +
-                                    "                var rtn = '{';\n" +
-                                    "                for (var name in obj) {\n" +
-                                    "                    if (obj.hasOwnProperty(name)) {\n" +
-                                    "                        if (rtn.length > 1) {\n" +
-                                    "                            rtn += ',';\n" +
-                                    "                        }\n" +
-                                    "                        rtn += JSON.stringify(name);\n" +
-                                    "                        rtn += ': ';\n" +
-                                    "                        rtn += valueToBridgeString(obj[name], true, cache);\n" +
-                                    "                    }\n" +
-                                    "                }\n" +
-                                    "                rtn += '}';\n" +
-                                    "            }\n" +
-                                    "            break;\n" +
-                                    "        case 'function':\n" +
-                                    "            rtn = '\\\"function:' + __functionIDCounter.toString() + ':' + btoa(obj.toString()) + '\\\"';\n" +
-                                    "            __functionCache[__functionIDCounter] = obj;\n" +
-                                    "            __functionIDCounter++;\n" +
-                                    "            if (__functionIDCounter > __functionIDLimit) { __functionIDCounter = 0; }\n" +
-                                    "            break;\n" +
-                                    "        default:\n" +
-                                    "            if (obj === undefined) {\n" +
-                                    "                rtn = 'null';\n" +
-                                    "            } else {" +
-                                    "                rtn = JSON.stringify(obj);\n" +
-                                    "            }\n" +
-                                    "    }\n" +
-                                    "    if (!embedded) {\n" +
-                                    "        rtn = '{\"__rawValue\": ' + rtn + '}';\n" +
-                                    "    }\n" +
-                                    "    return rtn;\n" +
-                                    "}\n");
+            // add our return handling stuff.  this one is called directly rather than through
+            // stubs, passResult() takes the call ID as a plain number.
+            super.addJavascriptInterface(bridgeSupport, "__bridgeSupport");
+            super.addJavascriptInterface(mDispatcher, BridgeDispatcher.INTERFACE_NAME);
+
+            // add our function passing stuff.  functions are kept until Java releases them,
+            // the bridge ID tells the decoder which FunctionTable is tracking them.
+            mFunctionTable = FunctionTable.create(mFunctionReleaser);
+
+            // the runtime is read once per process, and goes over with our settings in one go.
+            mJavascriptBatch.addBridgeScript(BridgeRuntime.script(mContext, mFunctionTable.bridgeID(),
+                    mFunctionCacheLimit, mSendsFunctionSource));
         }
     }
-}
 
+    /*
+    The settings a screen can change on a pooled web view.  The page is about to be replaced when
+    they're restored, so the limits it keeps go over with the runtime again rather than being
+    sent to it now.
+     */
+    private static final class Settings {
+        final Executor mResultExecutor;
+        final Executor mDispatchExecutor;
+        final int mDispatchQueueLimit;
+        final DispatchOverflow mDispatchOverflow;
+        final long mCallTimeoutNanos;
+        final boolean mUsesEvaluateJavascript;
+        final int mFunctionCacheLimit;
+        final boolean mSendsFunctionSource;
+        final DownloadListener mDownloadListener;
+
+        Settings(JSWebView webView) {
+            mResultExecutor = webView.mResultExecutor;
+            mDispatchExecutor = webView.mDispatcher.backgroundExecutor();
+            mDispatchQueueLimit = webView.mDispatcher.queueLimit();
+            mDispatchOverflow = webView.mDispatcher.overflow();
+            mCallTimeoutNanos = webView.mCallTimeoutNanos;
+            mUsesEvaluateJavascript = webView.mUsesEvaluateJavascript;
+            mFunctionCacheLimit = webView.mFunctionCacheLimit;
+            mSendsFunctionSource = webView.mSendsFunctionSource;
+            mDownloadListener = webView.mDownloadListener;
+        }
+
+        void restore(JSWebView webView) {
+            webView.mResultExecutor = mResultExecutor;
+            webView.mDispatcher.setBackgroundExecutor(mDispatchExecutor);
+            webView.mDispatcher.setQueueLimit(mDispatchQueueLimit);
+            webView.mDispatcher.setOverflow(mDispatchOverflow);
+            webView.mCallTimeoutNanos = mCallTimeoutNanos;
+            webView.mUsesEvaluateJavascript = mUsesEvaluateJavascript;
+            webView.mFunctionCacheLimit = mFunctionCacheLimit;
+            webView.mSendsFunctionSource = mSendsFunctionSource;
+            webView.setDownloadListener(mDownloadListener);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package io.theholygrail.jsbridge;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps JSWebViews ready to be handed out, so creating one and setting up its bridge doesn't
+ * happen while a screen is opening.
+ *
+ * Web views are made while the main thread is idle, one at a time, and given to the Preparer to
+ * add their javascript interfaces.  obtain() hands one out, released ones are reset and kept for
+ * next time.  Idle web views are let go of when memory runs low.
+ *
+ * Everything here has to happen on the main thread, like anything else to do with web views.
+ */
+public class JSWebViewPool implements ComponentCallbacks2 {
+    private static final String BLANK_URL = "about:blank";
+
+    /**
+     * Sets up each new web view the pool makes, ie: adds its javascript interfaces.
+     */
+    public interface Preparer {
+        void prepare(JSWebView webView);
+    }
+
+    private final Context mContext;
+    private final Preparer mPreparer;
+    private final int mMaxSize;
+    private final ArrayDeque<JSWebView> mIdle = new ArrayDeque<>();
+    // how many idle web views to keep ready, 0 until prewarm() is called.
+    private int mTargetSize = 0;
+    private boolean mFillQueued = false;
+    private boolean mClosed = false;
+
+    private final MessageQueue.IdleHandler mFill = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            // one per idle pass, so we're never in the way for long.
+            if (!mClosed && mIdle.size() < mTargetSize) {
+                mIdle.add(create());
+            }
+
+            mFillQueued = !mClosed && mIdle.size() < mTargetSize;
+            return mFillQueued;
+        }
+    };
+
+    /**
+     * maxSize is the most idle web views kept at once, preparer can be null.
+     */
+    public JSWebViewPool(Context context, int maxSize, Preparer preparer) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mMaxSize = maxSize;
+        mPreparer = preparer;
+        mContext.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Keeps the given number of web views ready, made whenever the main thread is idle.  Web
+     * views handed out are replaced the same way.
+     */
+    public void prewarm(int count) {
+        checkMainThread();
+        mTargetSize = Math.min(count, mMaxSize);
+        queueFill();
+    }
+
+    /**
+     * Returns a prepared web view for the given context, ie: an Activity.  Makes one right away
+     * if there aren't any ready.
+     */
+    public JSWebView obtain(Context context) {
+        checkMainThread();
+        if (mClosed) {
+            throw new IllegalStateException("The pool has been closed");
+        }
+
+        JSWebView webView = mIdle.poll();
+        if (webView == null) {
+            webView = create();
+        }
+        ((MutableContextWrapper)webView.getContext()).setBaseContext(context);
+
+        queueFill();
+        return webView;
+    }
+
+    /**
+     * Gives a web view back.  It's taken out of its parent, its clients are put back to the
+     * defaults, javascript interfaces added and settings changed since obtain() are undone, ie:
+     * executors, timeouts and the download listener, and it's left on a blank page with no
+     * history.  If the pool is full, or the web view didn't come from a pool, it's
+     * destroyed.
+     */
+    public void release(JSWebView webView) {
+        checkMainThread();
+
+        ViewParent parent = webView.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup)parent).removeView(webView);
+        }
+
+        if (mClosed || mIdle.size() >= mMaxSize || !(webView.getContext() instanceof MutableContextWrapper)) {
+            webView.destroy();
+            return;
+        }
+
+        // don't hold on to the activity.
+        ((MutableContextWrapper)webView.getContext()).setBaseContext(mContext);
+        webView.stopLoading();
+        webView.setDefaultClients();
+        webView.resetForPool();
+        webView.loadUrl(BLANK_URL);
+        // the blank page only replaces the last one once it's loaded.
+        webView.clearHistoryOnPageFinished();
+        mIdle.add(webView);
+    }
+
+    /**
+     * The number of web views ready to be handed out.
+     */
+    public int size() {
+        return mIdle.size();
+    }
+
+    /**
+     * Destroys idle web views until there are at most the given number left.  They're not made
+     * again until the next obtain().
+     */
+    public void trim(int size) {
+        checkMainThread();
+        while (mIdle.size() > Math.max(size, 0)) {
+            mIdle.poll().destroy();
+        }
+        removeFill();
+    }
+
+    /**
+     * Destroys every idle web view and stops listening for memory warnings.  Web views handed out
+     * and released afterwards are destroyed.
+     */
+    public void close() {
+        checkMainThread();
+        mClosed = true;
+        trim(0);
+        mContext.unregisterComponentCallbacks(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_RUNNING_MODERATE || level == TRIM_MEMORY_UI_HIDDEN) {
+            // keep one for when the user comes back.
+            trim(1);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trim(0);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private JSWebView create() {
+        // the context is switched over to whoever obtains it.
+        JSWebView webView = new JSWebView(new MutableContextWrapper(mContext));
+        if (mPreparer != null) {
+            mPreparer.prepare(webView);
+        }
+        webView.markPrepared();
+        // gets the page's javascript going, so that's done before it's needed too.
+        webView.loadUrl(BLANK_URL);
+        return webView;
+    }
+
+    private void queueFill() {
+        if (!mFillQueued && !mClosed && mIdle.size() < mTargetSize) {
+            mFillQueued = true;
+            Looper.myQueue().addIdleHandler(mFill);
+        }
+    }
+
+    private void removeFill() {
+        if (mFillQueued) {
+            mFillQueued = false;
+            Looper.myQueue().removeIdleHandler(mFill);
+        }
+    }
+
+    private static void checkMainThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("JSWebViewPool can only be used from the main thread");
+        }
+    }
+}
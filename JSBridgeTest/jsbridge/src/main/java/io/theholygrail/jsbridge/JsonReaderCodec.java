@@ -0,0 +1,181 @@
+package io.theholygrail.jsbridge;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes bridge strings with android.util.JsonReader, streaming straight into JSValues without
+ * an org.json tree in between.  Numbers keep the same types JSValueDecoder gives them, and arrays
+ * of nothing but numbers are packed the same way.  Values are written out by JavascriptWriter.
+ *
+ *     JSValueCodecs.setCodec(new JsonReaderCodec());
+ */
+public final class JsonReaderCodec implements JSValueCodec {
+    // the largest whole number a double holds exactly, anything past it stays in a list.
+    private static final long MAX_EXACT_DOUBLE_INTEGER = 1L << 53;
+
+    @Override
+    public JSValue decode(String bridgeString) throws JSONException {
+        JsonReader reader = new JsonReader(new StringReader(bridgeString));
+
+        try {
+            JSValue result = null;
+            int bridgeID = 0;
+            JSValueCodecs.Functions functions = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                // the page writes these ahead of the value so they're known before it's decoded.
+                if (JSValueDecoder.BRIDGE_ID_KEY.equals(key)) {
+                    bridgeID = reader.nextInt();
+                } else if (JSValueDecoder.FUNCTIONS_KEY.equals(key)) {
+                    functions = new JSValueCodecs.Functions(bridgeID);
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        functions.track(Long.toString(reader.nextLong()));
+                    }
+                    reader.endArray();
+                } else if (JSValueDecoder.RAW_VALUE_KEY.equals(key)) {
+                    result = readValue(reader, functions);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (result == null) {
+                throw new JSONException("No value for " + JSValueDecoder.RAW_VALUE_KEY);
+            }
+            return result;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // JsonReader throws IllegalStateException for anything out of place.
+            throw new JSONException(e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // .. nothing to let go of for a string.
+            }
+        }
+    }
+
+    @Override
+    public void encode(JSValue value, StringBuilder builder) {
+        JavascriptWriter.write(value, builder);
+    }
+
+    // Private stuff -------------------------------------------------------------------------------
+
+    private static JSValue readValue(JsonReader reader, JSValueCodecs.Functions functions) throws IOException {
+        JSValue result = new JSValue();
+
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new HashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    map.put(key, readValue(reader, functions));
+                }
+                reader.endObject();
+                result.setReference(JSValue.Type.OBJECT, map);
+                break;
+            case BEGIN_ARRAY:
+                result.setReference(JSValue.Type.ARRAY, readArray(reader, functions));
+                break;
+            case STRING:
+                String string = reader.nextString();
+                if (!JSFunction.isFunctionString(string)) {
+                    result.setReference(JSValue.Type.STRING, string);
+                } else if (functions != null) {
+                    result.setReference(JSValue.Type.FUNCTION, functions.resolve(string));
+                } else {
+                    result.setReference(JSValue.Type.FUNCTION, JSFunction.parse(string));
+                }
+                break;
+            case NUMBER:
+                setNumber(result, reader.nextString());
+                break;
+            case BOOLEAN:
+                result.setBoolean(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                result.setNull();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected " + reader.peek());
+        }
+
+        return result;
+    }
+
+    /*
+    Reads an array into a list, then packs it into an int[] or double[] if it turned out to be
+    nothing but numbers, see JSValue.intArrayValue().
+     */
+    private static Object readArray(JsonReader reader, JSValueCodecs.Functions functions) throws IOException {
+        List<Object> list = new ArrayList<>();
+        boolean ints = true;
+        boolean numbers = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JSValue item = readValue(reader, functions);
+            JSValue.Type type = item.type();
+            ints &= type == JSValue.Type.INTEGER;
+            numbers &= type == JSValue.Type.INTEGER || type == JSValue.Type.DOUBLE
+                    || (type == JSValue.Type.LONG && Math.abs(item.longValue(0)) <= MAX_EXACT_DOUBLE_INTEGER);
+            list.add(item);
+        }
+        reader.endArray();
+
+        int count = list.size();
+        if (count == 0 || !numbers) {
+            return list;
+        } else if (ints) {
+            int[] packed = new int[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((JSValue)list.get(i)).intValue(0);
+            }
+            return packed;
+        } else {
+            double[] packed = new double[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((JSValue)list.get(i)).doubleValue(0);
+            }
+            return packed;
+        }
+    }
+
+    // same rules as org.json, ints if they fit, longs if they don't, then doubles.
+    private static void setNumber(JSValue target, String literal) {
+        boolean isIntegral = literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0;
+
+        if (isIntegral) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                    target.setInt((int)value);
+                } else {
+                    target.setLong(value);
+                }
+                return;
+            } catch (NumberFormatException e) {
+                // too big for a long, fall through to double.
+            }
+        }
+
+        target.setDouble(Double.parseDouble(literal));
+    }
+}
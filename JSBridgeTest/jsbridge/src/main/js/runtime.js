@@ -0,0 +1,171 @@
+// The javascript side of the bridge, set up once in each page that has a JSWebView interface.
+//
+// Packaged as the jsbridge/runtime.min.js asset with comments and indentation stripped, see
+// minifyBridgeRuntime in build.gradle.  JSWebView sets __bridgeID, __functionIDBase,
+// __functionIDLimit, __bridgeSendsFunctionSource and __bridgeTiming alongside it.  Everything is assigned rather than declared, so
+// it works the same wherever it's evaluated.
+
+// functions passed to Java are kept here until Java releases them.  Left alone if the runtime
+// is sent to the same page again.  IDs start from where Java says, so they're never the same as
+// the ones an earlier page in this web view handed out.
+if (typeof __functionRefs === 'undefined') {
+    __functionIDCounter = __functionIDBase, __functionCache = { }, __functionRefs = { };
+    __functionCacheSize = 0, __functionCachePeak = 0, __functionCacheEvicted = 0;
+}
+__bridgeRetainFunction = function(fn, retained) {
+    var id = fn.__bridgeFunctionID;
+    if (id === undefined || __functionCache[id] !== fn) {
+        if (__functionCacheSize >= __functionIDLimit) {
+            // full, drop the oldest.  ids are never reused so it can't be mistaken for this one.
+            for (var oldest in __functionCache) {
+                __bridgeDropFunction(oldest);
+                __functionCacheEvicted++;
+                break;
+            }
+        }
+        id = ++__functionIDCounter;
+        try {
+            Object.defineProperty(fn, '__bridgeFunctionID', { value: id, configurable: true, writable: true });
+        } catch (e) {
+            // frozen, it'll just get a new id each time.
+        }
+        __functionCache[id] = fn;
+        __functionRefs[id] = 0;
+        __functionCacheSize++;
+        if (__functionCacheSize > __functionCachePeak) { __functionCachePeak = __functionCacheSize; }
+    }
+    if (retained.indexOf(id) < 0) {
+        retained.push(id);
+        __functionRefs[id]++;
+    }
+    return id;
+};
+
+__bridgeDropFunction = function(id) {
+    delete __functionCache[id];
+    delete __functionRefs[id];
+    __functionCacheSize--;
+};
+
+__bridgeReleaseFunctions = function(ids) {
+    for (var i = 0; i < ids.length; i++) {
+        var id = ids[i];
+        if (__functionRefs[id] !== undefined && --__functionRefs[id] <= 0) {
+            __bridgeDropFunction(id);
+        }
+    }
+};
+
+__bridgeFunctionCacheStats = function() {
+    return { size: __functionCacheSize, peak: __functionCachePeak, limit: __functionIDLimit, evicted: __functionCacheEvicted };
+};
+
+// turns any value into a bridge string, ie: {"__rawValue": ...} with the functions in it retained.
+valueToBridgeString = function(obj, embedded, context) {
+    if (!context) context = { stack: [], functions: [] };
+    // recursion sanity check, only the objects we're inside of count.
+    if (context.stack.indexOf(obj) >= 0) {
+        throw new Error('Can\'t do circular references');
+    }
+
+    var rtn;
+    try {
+        switch (typeof obj) {
+            case 'object':
+                if (!obj) {
+                    rtn = JSON.stringify(obj);
+                    break;
+                }
+                context.stack.push(obj);
+                if (Array.isArray(obj)) {
+                    rtn = '[' + obj.map(function(item) {
+                        return valueToBridgeString(item, true, context);
+                    }).join(',') + ']';
+                } else {
+                    rtn = '{';
+                    for (var name in obj) {
+                        if (obj.hasOwnProperty(name)) {
+                            if (rtn.length > 1) {
+                                rtn += ',';
+                            }
+                            rtn += JSON.stringify(name);
+                            rtn += ': ';
+                            rtn += valueToBridgeString(obj[name], true, context);
+                        }
+                    }
+                    rtn += '}';
+                }
+                context.stack.pop();
+                break;
+            case 'function':
+                rtn = '"function:' + __bridgeRetainFunction(obj, context.functions) + ':' + (__bridgeSendsFunctionSource ? btoa(obj.toString()) : '') + '"';
+                break;
+            default:
+                if (obj === undefined) {
+                    rtn = 'null';
+                } else {
+                    rtn = JSON.stringify(obj);
+                }
+        }
+    } catch (e) {
+        // nothing is going to reach Java, so nobody will release what we retained.
+        if (!embedded) __bridgeReleaseFunctions(context.functions);
+        throw e;
+    }
+    if (!embedded) {
+        var header = '';
+        if (context.functions.length > 0) {
+            header = '"__bridgeID": ' + __bridgeID + ', "__functions": [' + context.functions.join(',') + '], ';
+        }
+        rtn = '{' + header + '"__rawValue": ' + rtn + '}';
+    }
+    return rtn;
+};
+
+// times a call from Java while BridgeTrace is on.  It's marked with the user timing API under the
+// same name as the Java side's trace section, so the two line up in a trace that has both.
+__bridgeTrace = function(id, call) {
+    var name = 'jsbridge:call ' + id;
+    var timing = typeof performance !== 'undefined' && performance.mark && performance.measure;
+    if (timing) performance.mark(name);
+    try {
+        return call();
+    } finally {
+        if (timing) {
+            performance.measure(name, name);
+            // the trace has it, nothing in the page needs it kept.
+            performance.clearMarks(name);
+            performance.clearMeasures(name);
+        }
+    }
+};
+
+// every stub makes its call through here.  While Java is measuring or tracing, __bridgeTiming is
+// __bridgeDispatch and the call is timed on the JavaBridge thread, otherwise it's just made.
+__bridgeTimed = function(interfaceName, methodName, call) {
+    var timing = typeof __bridgeTiming !== 'undefined' ? __bridgeTiming : null;
+    if (!timing) return call();
+    timing.begin(interfaceName, methodName);
+    try {
+        return call();
+    } finally {
+        timing.end();
+    }
+};
+
+// runs a call for Java, sending back either its value or what it threw.  traceID is only passed
+// while BridgeTrace is on.
+__bridgeCall = function(call, traceID) {
+    try {
+        return valueToBridgeString(traceID !== undefined ? __bridgeTrace(traceID, call) : call());
+    } catch (e) {
+        var message = (e && e.message !== undefined) ? e.message : e;
+        return JSON.stringify({ __error: { message: String(message), stack: (e && e.stack) ? String(e.stack) : null } });
+    }
+};
+
+// everything passed to a @PackedArguments stub goes over in one bridge string.
+argumentsToBridgeString = function(args) {
+    return valueToBridgeString(Array.prototype.slice.call(args));
+};
+